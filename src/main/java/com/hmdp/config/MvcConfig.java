@@ -1,9 +1,9 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.ILoginSessionManager;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -18,7 +18,7 @@ import javax.annotation.Resource;
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 	@Resource
-	private StringRedisTemplate stringRedisTemplate;
+	private ILoginSessionManager loginSessionManager;
 
 	@Override
 	public void addInterceptors(InterceptorRegistry registry) {
@@ -33,6 +33,6 @@ public class MvcConfig implements WebMvcConfigurer {
 				"/voucher/**"
 		).order(1);
 		// token刷新拦截器
-		registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+		registry.addInterceptor(new RefreshTokenInterceptor(loginSessionManager)).addPathPatterns("/**").order(0);
 	}
 }
@@ -1,10 +1,19 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILoginSessionManager;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStockGate;
+import com.hmdp.utils.SeckillStockSharding;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 /**
  * @program: hm-dianping-backend
@@ -24,4 +33,29 @@ public class RedisConfig {
 		// 创建客户端
 		return Redisson.create(config);
 	}
+
+	/**
+	 * Redis发布订阅的监听容器
+	 */
+	@Bean
+	public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory,
+																	   SeckillStockGate seckillStockGate,
+																	   SeckillStockSharding seckillStockSharding,
+																	   CacheClient cacheClient,
+																	   CacheBloomFilter cacheBloomFilter,
+																	   ILoginSessionManager loginSessionManager) {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(redisConnectionFactory);
+		// 秒杀库存补充，清除各节点的本地售罄标记
+		container.addMessageListener(seckillStockGate, new ChannelTopic(RedisConstants.SECKILL_STOCK_CHANNEL));
+		// 秒杀库存重新分片，清除各节点缓存的分片数
+		container.addMessageListener(seckillStockSharding, new ChannelTopic(RedisConstants.SECKILL_STOCK_CHANNEL));
+		// 缓存失效，删除各节点的本地缓存
+		container.addMessageListener(cacheClient, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+		// 新增数据，写入各节点布隆过滤器的本地位数组
+		container.addMessageListener(cacheBloomFilter, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+		// 用户登出，删除各节点的本地会话缓存，或把会话ID加入各节点的布隆过滤器
+		container.addMessageListener(loginSessionManager, new ChannelTopic(RedisConstants.LOGIN_SESSION_CHANNEL));
+		return container;
+	}
 }
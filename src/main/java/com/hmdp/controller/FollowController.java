@@ -1,10 +1,8 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RedisConstants;
@@ -16,6 +14,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -59,12 +59,14 @@ public class FollowController {
 		Long currentUserId = UserHolder.getUser().getId();
 		// 3. 去Redis中取关注列表的交集
 		SetOperations<String, String> setOperations = stringRedisTemplate.opsForSet();
-		List<User> userList = setOperations.intersect((RedisConstants.FOLLOW_KEY + currentUserId).toString(), (RedisConstants.FOLLOW_KEY + userId).toString())
-				.stream().map(Long::valueOf).map(id -> userService.getById(id)).collect(Collectors.toList());
-		if (userList == null || userList.isEmpty()) {
+		Set<String> idSet = setOperations.intersect(RedisConstants.FOLLOW_KEY + currentUserId, RedisConstants.FOLLOW_KEY + userId);
+		if (idSet == null || idSet.isEmpty()) {
 			return Result.ok(Collections.emptyList());
 		}
-		List<UserDTO> userDTOList = userList.stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+		// 4. 批量查询用户
+		List<Long> idList = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+		List<UserDTO> userDTOList = userService.queryUserDTOs(idList).stream()
+				.filter(Objects::nonNull).collect(Collectors.toList());
 		return Result.ok(userDTOList);
 	}
 }
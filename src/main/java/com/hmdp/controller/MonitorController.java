@@ -0,0 +1,104 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.FeedFanoutWorker;
+import com.hmdp.utils.ILoginSessionManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 运行指标查询
+ * @author: Mr.Ye
+ * @create: 2026-10-18 17:30
+ **/
+@RestController
+@RequestMapping("/monitor")
+public class MonitorController {
+
+	@Resource
+	private CacheClient cacheClient;
+
+	@Resource
+	private CacheBloomFilter cacheBloomFilter;
+
+	@Resource
+	private CacheRebuildExecutor cacheRebuildExecutor;
+
+	@Resource
+	private ILoginSessionManager loginSessionManager;
+
+	@Resource
+	private FeedFanoutWorker feedFanoutWorker;
+
+	/**
+	 * 本地缓存的命中率、淘汰数和失效通知数
+	 */
+	@GetMapping("/cache/local")
+	public Result localCacheStats() {
+		return Result.ok(cacheClient.localCacheStats());
+	}
+
+	/**
+	 * 缓存重建线程池的队列长度、重建耗时和失败数
+	 */
+	@GetMapping("/cache/rebuild")
+	public Result cacheRebuildStats() {
+		return Result.ok(cacheRebuildExecutor.stats());
+	}
+
+	/**
+	 * 登录会话的统计信息：Redis会话的本地缓存命中率，或签名token的校验和登出拦截数
+	 */
+	@GetMapping("/session")
+	public Result sessionStats() {
+		return Result.ok(loginSessionManager.stats());
+	}
+
+	/**
+	 * 笔记推送队列的长度、待确认数和推送耗时
+	 */
+	@GetMapping("/feed/fanout")
+	public Result feedFanoutStats() {
+		return Result.ok(feedFanoutWorker.stats());
+	}
+
+	/**
+	 * 笔记的推送进度
+	 *
+	 * @param blogId 笔记ID
+	 */
+	@GetMapping("/feed/fanout/{blogId}")
+	public Result feedFanoutProgress(@PathVariable("blogId") Long blogId) {
+		return Result.ok(feedFanoutWorker.progress(blogId));
+	}
+
+	/**
+	 * 布隆过滤器的容量、误判率和拦截数
+	 */
+	@GetMapping("/bloom")
+	public Result bloomFilterStats() {
+		return Result.ok(cacheBloomFilter.stats());
+	}
+
+	/**
+	 * 从数据库重建布隆过滤器
+	 *
+	 * @param name 过滤器名称
+	 */
+	@PostMapping("/bloom/{name}/rebuild")
+	public Result rebuildBloomFilter(@PathVariable("name") String name) {
+		if (!cacheBloomFilter.rebuild(name)) {
+			return Result.fail("布隆过滤器不存在！");
+		}
+		return Result.ok(cacheBloomFilter.stats().get(name));
+	}
+}
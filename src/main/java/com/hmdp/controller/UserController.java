@@ -6,12 +6,12 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -37,7 +37,7 @@ public class UserController {
     private IUserInfoService userInfoService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private ISignService signService;
 
     /**
      * 发送手机验证码
@@ -63,10 +63,18 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // 移除Redis中的登录状态
-        stringRedisTemplate.delete(RedisConstants.LOGIN_USER_KEY + UserHolder.getUser().getId());
-        return Result.ok();
+    public Result logout(@RequestHeader(SystemConstants.AUTHORIZATION) String token){
+        // 移除当前token的登录状态
+        return userService.logout(token);
+    }
+
+    /**
+     * 登出所有设备
+     * @return 登出的会话数
+     */
+    @PostMapping("/logout/all")
+    public Result logoutAll(){
+        return userService.logoutAll();
     }
 
     @GetMapping("/me")
@@ -76,6 +84,24 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 今天签到
+     * @return 无
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 签到统计
+     * @return 今天是否签到、连续签到天数、本月签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
@@ -0,0 +1,43 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: binlog中的一行数据变更
+ * @author: Mr.Ye
+ * @create: 2026-10-18 22:10
+ **/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RowChangeDTO {
+	public static final String INSERT = "INSERT";
+	public static final String UPDATE = "UPDATE";
+	public static final String DELETE = "DELETE";
+
+	/**
+	 * 表名
+	 */
+	private String table;
+
+	/**
+	 * 变更类型：INSERT、UPDATE、DELETE
+	 */
+	private String type;
+
+	/**
+	 * 变更前的数据：列名 -> 值，INSERT时为null
+	 */
+	private Map<String, Serializable> before;
+
+	/**
+	 * 变更后的数据：列名 -> 值，DELETE时为null
+	 */
+	private Map<String, Serializable> after;
+}
@@ -0,0 +1,10 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class SignDTO {
+    private Boolean signedToday;
+    private Integer streak;
+    private Long monthCount;
+}
@@ -79,6 +79,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分片数，大于1时秒杀库存拆分到多个Redis key
+     */
+    @TableField(exist = false)
+    private Integer shardCount;
+
     /**
      * 生效时间
      */
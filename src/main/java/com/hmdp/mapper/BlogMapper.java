@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数：UPDATE tb_blog SET liked = liked + CASE id WHEN ... END, liked_flush = flushId
+     * WHERE id IN (...) AND liked_flush != flushId，同一批次重复写回时已经写过的行不会再累加
+     *
+     * @param deltaMap 笔记ID -> 点赞数增量
+     * @param flushId  写回批次
+     * @return 更新行数
+     */
+    int updateLikedBatch(@Param("deltaMap") Map<Long, Long> deltaMap, @Param("flushId") long flushId);
 }
@@ -0,0 +1,26 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 多行写入归档的签到记录，同一个用户同一个月已存在时覆盖签到位图，重复归档不会产生重复数据
+     *
+     * @param signList 签到记录
+     * @return 影响行数
+     */
+    int insertOrUpdateBatch(@Param("signList") List<Sign> signList);
+}
@@ -0,0 +1,30 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface ISignService extends IService<Sign> {
+
+	/**
+	 * 当前用户今天签到
+	 *
+	 * @return 无
+	 */
+	Result sign();
+
+	/**
+	 * 当前用户的签到统计：今天是否签到、连续签到天数、本月签到天数
+	 *
+	 * @return 签到统计
+	 */
+	Result signCount();
+}
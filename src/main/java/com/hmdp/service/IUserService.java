@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -20,4 +22,10 @@ public interface IUserService extends IService<User> {
 	Result sendCode(String phone, HttpSession session);
 
 	Result login(LoginFormDTO loginForm);
+
+	Result logout(String token);
+
+	Result logoutAll();
+
+	List<UserDTO> queryUserDTOs(List<Long> ids);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +20,5 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
 	Result createVoucherOrder(Long voucherId, Long userId);
 
-	void createVoucherOrder(VoucherOrder voucherOrder);
+	void createVoucherOrders(List<VoucherOrder> voucherOrderList);
 }
@@ -1,31 +1,44 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanoutWorker;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.Clock;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -36,6 +49,7 @@ import java.util.stream.Collectors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
@@ -43,55 +57,153 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 	private IUserService userService;
 
 	@Resource
-	private IFollowService followService;
+	private StringRedisTemplate stringRedisTemplate;
 
 	@Resource
-	private StringRedisTemplate stringRedisTemplate;
+	private FeedFanoutWorker feedFanoutWorker;
+
+	@Resource
+	private CacheBloomFilter cacheBloomFilter;
+
+	@Resource
+	private CacheClient cacheClient;
+
+	@Resource
+	private BlogHotRanking blogHotRanking;
+
+	/**
+	 * 每条UPDATE语句写回的笔记数
+	 */
+	@Value("${hmdp.blog.like.flush-batch-size:500}")
+	private int likeFlushBatchSize;
+
+	private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+	private static final DefaultRedisScript<Long> LIKERS_SCRIPT;
+
+	private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+	static {
+		LIKE_SCRIPT = new DefaultRedisScript<>();
+		LIKE_SCRIPT.setLocation(new ClassPathResource("likeBlog.lua"));
+		LIKE_SCRIPT.setResultType(Long.class);
+		LIKERS_SCRIPT = new DefaultRedisScript<>();
+		LIKERS_SCRIPT.setLocation(new ClassPathResource("blogLikers.lua"));
+		LIKERS_SCRIPT.setResultType(Long.class);
+		UNLOCK_SCRIPT = new DefaultRedisScript<>();
+		UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+		UNLOCK_SCRIPT.setResultType(Long.class);
+	}
+
+	/**
+	 * 注册笔记ID布隆过滤器，点赞时不需要查询数据库判断笔记是否存在
+	 */
+	@PostConstruct
+	private void init() {
+		cacheBloomFilter.register("blog", RedisConstants.CACHE_BLOG_KEY, (lastId, limit) ->
+				listObjs(query().select("id").gt("id", lastId).orderByAsc("id").last("limit " + limit).getWrapper(),
+						id -> Long.valueOf(id.toString())));
+	}
 
 	@Override
 	public Result queryHotBlog(Integer current) {
-		// 根据用户查询
-		Page<Blog> page = query()
-				.orderByDesc("liked")
-				.page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-		// 获取当前页数据
-		List<Blog> records = page.getRecords();
-		// 查询用户
-		records.forEach(blog -> {
-			this.setBlogUser(blog);
-			this.isBlogLiked(blog);
-		});
+		// 1. 从热门排行中查询当前页的笔记ID，排行还没有构建时查询数据库
+		List<Long> blogIds = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+		List<Blog> records;
+		if (blogIds.isEmpty() && !blogHotRanking.exists()) {
+			records = query()
+					.orderByDesc("liked")
+					.page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE))
+					.getRecords();
+		} else {
+			// 2. 批量查询笔记缓存，不存在的笔记跳过
+			records = queryBlogs(blogIds);
+		}
+		// 3. 批量设置作者和点赞状态
+		this.enrichBlogs(records);
 		return Result.ok(records);
 	}
 
-	private void setBlogUser(Blog blog) {
-		Long userId = blog.getUserId();
-		User user = userService.getById(userId);
-		blog.setName(user.getNickName());
-		blog.setIcon(user.getIcon());
+	/**
+	 * 批量查询笔记，一次MGET查询缓存，未命中的笔记一次批量查询数据库
+	 *
+	 * @param blogIds 笔记ID
+	 * @return 与blogIds顺序一致的笔记，不存在的笔记跳过
+	 */
+	private List<Blog> queryBlogs(List<Long> blogIds) {
+		List<Blog> blogList = cacheClient.queryBatch(RedisConstants.CACHE_BLOG_KEY, blogIds, Blog.class,
+				ids -> listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+				RedisConstants.CACHE_BLOG_TTL, TimeUnit.MINUTES);
+		return blogList.stream().filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	/**
+	 * 批量设置笔记的作者信息和当前用户是否点赞，请求次数与笔记数无关
+	 *
+	 * @param blogList 笔记列表
+	 */
+	private void enrichBlogs(List<Blog> blogList) {
+		if (blogList.isEmpty()) {
+			return;
+		}
+		setBlogUsers(blogList);
+		setBlogsLiked(blogList);
+	}
+
+	/**
+	 * 批量设置笔记作者信息，一次批量查询所有作者
+	 *
+	 * @param blogList 笔记列表
+	 */
+	private void setBlogUsers(List<Blog> blogList) {
+		List<Long> userIds = blogList.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+		Map<Long, UserDTO> userMap = new HashMap<>(userIds.size());
+		List<UserDTO> userList = userService.queryUserDTOs(userIds);
+		for (int i = 0; i < userIds.size(); i++) {
+			userMap.put(userIds.get(i), userList.get(i));
+		}
+		blogList.forEach(blog -> {
+			UserDTO user = userMap.get(blog.getUserId());
+			if (user != null) {
+				blog.setName(user.getNickName());
+				blog.setIcon(user.getIcon());
+			}
+		});
 	}
 
 	@Override
 	public Result queryBlogById(Long id) {
-		// 查询blog
-		Blog blog = getById(id);
-		if (blog == null) {
+		// 1. 查询笔记缓存
+		List<Blog> blogList = queryBlogs(Collections.singletonList(id));
+		if (blogList.isEmpty()) {
 			return Result.fail("笔记不存在");
 		}
-		// 设置blog
-		setBlogUser(blog);
-		// 查询用户是否被点赞并设置isLike字段
-		this.isBlogLiked(blog);
-		return Result.ok(blog);
+		// 2. 设置作者和点赞状态
+		enrichBlogs(blogList);
+		return Result.ok(blogList.get(0));
 	}
 
-	private void isBlogLiked(Blog blog) {
+	/**
+	 * 批量设置当前用户是否点赞，通过管道一次查询所有笔记的ZSCORE
+	 *
+	 * @param blogList 笔记列表
+	 */
+	private void setBlogsLiked(List<Blog> blogList) {
 		UserDTO user = UserHolder.getUser();
 		if (user == null) {
 			return;
 		}
-		Double score = stringRedisTemplate.opsForZSet().score(RedisConstants.BLOG_LIKED_KEY + blog.getId(), user.getId().toString());
-		blog.setIsLike(score != null);
+		String userId = user.getId().toString();
+		List<Object> scoreList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (Blog blog : blogList) {
+				stringConnection.zScore(RedisConstants.BLOG_LIKED_KEY + blog.getId(), userId);
+			}
+			return null;
+		});
+		for (int i = 0; i < blogList.size(); i++) {
+			blogList.get(i).setIsLike(scoreList.get(i) != null);
+		}
 	}
 
 	@Override
@@ -100,49 +212,124 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 		if (id == null || id <0) {
 			return Result.fail("请求参数错误！");
 		}
-		// 2. 查询笔记是否存在
-		Blog blog = getById(id);
-		if (blog == null) {
+		// 2. 布隆过滤器判断笔记是否存在，不查询数据库
+		if (!cacheBloomFilter.mightContain(RedisConstants.CACHE_BLOG_KEY, id)) {
 			return Result.fail("当前笔记不存在！");
 		}
-		// 3. 判断是否点赞
-		Long userId = UserHolder.getUser().getId();
-		String likedKey = RedisConstants.BLOG_LIKED_KEY + id;
-		ZSetOperations<String, String> zSetOperations = stringRedisTemplate.opsForZSet();
-		if ((zSetOperations.score(RedisConstants.BLOG_LIKED_KEY + id, userId.toString()) != null)) {
-			// 4. 已经点赞，取消点赞，点赞数-1
-			boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-			if (!isSuccess) {
-				return Result.fail("取消点赞失败，请稍后重试！");
-			}
-			zSetOperations.remove(likedKey, userId.toString());
-			return Result.ok();
+		// 3. 执行脚本，原子地切换点赞状态、更新热门排行和点赞用户快照，并记录点赞数增量，由定时任务批量写回数据库
+		UserDTO user = UserHolder.getUser();
+		stringRedisTemplate.execute(
+				LIKE_SCRIPT,
+				Arrays.asList(RedisConstants.BLOG_LIKED_KEY + id, RedisConstants.BLOG_LIKED_DELTA_KEY,
+						RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_EPOCH_KEY, RedisConstants.BLOG_LIKERS_KEY + id),
+				id.toString(),
+				user.getId().toString(),
+				String.valueOf(Clock.systemUTC().instant().toEpochMilli()),
+				String.valueOf(blogHotRanking.getHalfLifeMillis()),
+				JSONUtil.toJsonStr(user),
+				String.valueOf(SystemConstants.BLOG_LIKERS_SIZE)
+		);
+		return Result.ok();
+	}
+
+	/**
+	 * 将Redis中累计的点赞数增量批量写回数据库，每批一条UPDATE ... CASE语句，多个节点同时执行时只有一个节点执行
+	 * 写回前先把增量重命名为待写回的Hash，同时生成写回批次，写回期间的点赞记录到新的增量中；每批写回后删除对应的字段，
+	 * 上次未写完的增量会在下次以同一批次先写回，数据库中已经写过这个批次的行会被跳过，不会重复累加；
+	 * 写回后删除笔记缓存，下次查询时读取新的点赞数
+	 */
+	@Scheduled(fixedDelayString = "${hmdp.blog.like.flush-interval:1000}")
+	public void flushLikes() {
+		String lockKey = RedisConstants.LOCK_BLOG_LIKED_FLUSH_KEY;
+		String lockValue = UUID.randomUUID().toString(true);
+		if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, lockValue,
+				RedisConstants.LOCK_BLOG_LIKED_FLUSH_TTL, TimeUnit.SECONDS))) {
+			return;
 		}
-		// 5. 未点赞，点赞数+1
-		boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-		if (!isSuccess) {
-			return Result.fail("点赞失败，请稍后重试！");
+		try {
+			// 1. 没有未写完的增量时，取出当前的增量，同时生成写回批次
+			String flushingKey = RedisConstants.BLOG_LIKED_FLUSHING_KEY;
+			String flushIdKey = RedisConstants.BLOG_LIKED_FLUSH_ID_KEY;
+			if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(flushingKey))) {
+				if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKED_DELTA_KEY))) {
+					return;
+				}
+				String newFlushId = String.valueOf(System.currentTimeMillis());
+				stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+					@Override
+					@SuppressWarnings({"unchecked", "rawtypes"})
+					public List<Object> execute(RedisOperations operations) {
+						operations.multi();
+						operations.rename(RedisConstants.BLOG_LIKED_DELTA_KEY, flushingKey);
+						operations.opsForValue().set(flushIdKey, newFlushId);
+						return operations.exec();
+					}
+				});
+			}
+			// 升级前遗留的待写回增量没有批次，补一个
+			stringRedisTemplate.opsForValue().setIfAbsent(flushIdKey, String.valueOf(System.currentTimeMillis()));
+			long flushId = Long.parseLong(stringRedisTemplate.opsForValue().get(flushIdKey));
+			// 2. 合并后的增量，为0的不需要写回
+			Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+			Map<Long, Long> deltaMap = new LinkedHashMap<>(entries.size() * 2);
+			entries.forEach((blogId, delta) -> deltaMap.put(Long.valueOf(blogId.toString()), Long.valueOf(delta.toString())));
+			// 3. 分批写回，每批写回后删除对应的字段
+			List<Long> blogIds = new ArrayList<>(deltaMap.keySet());
+			long updated = 0;
+			for (int from = 0; from < blogIds.size(); from += likeFlushBatchSize) {
+				List<Long> batchIds = blogIds.subList(from, Math.min(from + likeFlushBatchSize, blogIds.size()));
+				Map<Long, Long> batchMap = new LinkedHashMap<>(batchIds.size() * 2);
+				for (Long blogId : batchIds) {
+					Long delta = deltaMap.get(blogId);
+					if (delta != 0) {
+						batchMap.put(blogId, delta);
+					}
+				}
+				if (!batchMap.isEmpty()) {
+					updated += baseMapper.updateLikedBatch(batchMap, flushId);
+				}
+				stringRedisTemplate.opsForHash().delete(flushingKey, batchIds.stream().map(String::valueOf).toArray());
+				cacheClient.delete(batchMap.keySet().stream().map(blogId -> RedisConstants.CACHE_BLOG_KEY + blogId)
+						.collect(Collectors.toList()));
+			}
+			log.debug("点赞数写回数据库，笔记数：{}，更新行数：{}", blogIds.size(), updated);
+		} catch (Exception e) {
+			log.error("点赞数写回数据库失败！", e);
+		} finally {
+			// 只释放自己持有的锁，写回超过锁的有效期时不会删除排行重建持有的锁
+			stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey), lockValue);
 		}
-		zSetOperations.add(likedKey, userId.toString(), Clock.systemUTC().instant().toEpochMilli());
-		return Result.ok();
 	}
 
 	@Override
 	public Result queryBlogLikes(Long id) {
-		// 1. 使用sorted set查询出点赞用户的id ZRANGE KEY START END
-		ZSetOperations<String,String> zSetOperations = stringRedisTemplate.opsForZSet();
-		Set<String> idSet = zSetOperations.range(RedisConstants.BLOG_LIKED_KEY + id.toString(), 0, 4);
+		// 1. 查询最早点赞用户的快照，快照中的空值是已经不存在的用户
+		String likersKey = RedisConstants.BLOG_LIKERS_KEY + id;
+		List<String> likerList = stringRedisTemplate.opsForList().range(likersKey, 0, -1);
+		if (likerList != null && !likerList.isEmpty()) {
+			return Result.ok(likerList.stream().filter(StrUtil::isNotEmpty)
+					.map(json -> JSONUtil.toBean(json, UserDTO.class)).collect(Collectors.toList()));
+		}
+		// 2. 快照不存在，使用sorted set查询出点赞用户的id ZRANGE KEY START END
+		String likedKey = RedisConstants.BLOG_LIKED_KEY + id;
+		Set<String> idSet = stringRedisTemplate.opsForZSet().range(likedKey, 0, SystemConstants.BLOG_LIKERS_SIZE - 1);
 		if (idSet == null || idSet.isEmpty()) {
 			return Result.ok(Collections.emptyList());
 		}
+		// 3. 批量查询用户缓存，与id顺序一致
 		List<Long> idList = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
-		// 2. 根据id查询出点赞用户
-		String idListStr = StrUtil.join(",", idList);
-		List<UserDTO> userDTOList = userService.query().in("id", idList).last("order by field (id," + idListStr + ")").list()
-			.stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-			.collect(Collectors.toList());
-		// 3. 去敏返回
-		return Result.ok(userDTOList);
+		List<UserDTO> userList = userService.queryUserDTOs(idList);
+		// 4. 写入快照，查询期间点赞用户发生变化时不写入
+		List<String> args = new ArrayList<>(idList.size() * 2 + 2);
+		args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.BLOG_LIKERS_TTL)));
+		args.add(String.valueOf(SystemConstants.BLOG_LIKERS_SIZE));
+		for (int i = 0; i < idList.size(); i++) {
+			args.add(idList.get(i).toString());
+			args.add(userList.get(i) == null ? "" : JSONUtil.toJsonStr(userList.get(i)));
+		}
+		stringRedisTemplate.execute(LIKERS_SCRIPT, Arrays.asList(likedKey, likersKey), args.toArray());
+		// 5. 去敏返回
+		return Result.ok(userList.stream().filter(Objects::nonNull).collect(Collectors.toList()));
 	}
 
 	@Override
@@ -155,13 +342,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 		if (!isSuccess) {
 			return Result.fail("笔记发布失败，请稍后重试！");
 		}
-		// 3. 推送笔记到粉丝、
-		// 3.1. 查找粉丝ID
-		List<Long> followIdList = followService.query().eq("follow_user_id", userId).list()
-				.stream().map(follow -> follow.getUserId()).collect(Collectors.toList());
-		// 3.2. 推送笔记ID到每个粉丝的收件箱
+		// 3. 加入热门排行，异步推送笔记到粉丝的收件箱，推送进度可以通过笔记ID查询
 		Long blogId = blog.getId();
-		followIdList.forEach(id -> stringRedisTemplate.opsForZSet().add(RedisConstants.FEED_KEY + id, blogId.toString(), Clock.systemUTC().instant().toEpochMilli()));
+		long now = Clock.systemUTC().instant().toEpochMilli();
+		cacheBloomFilter.add(RedisConstants.CACHE_BLOG_KEY, blogId);
+		blogHotRanking.add(blogId, now);
+		feedFanoutWorker.publish(blogId, userId, now);
 		// 返回id
 		return Result.ok(blogId);
 	}
@@ -170,12 +356,36 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 	public Result queryFollowBlogs(Long maxTime, Integer offset) {
 		// 1. 获取当前用户
 		Long userId = UserHolder.getUser().getId();
-		// 2. 查询博客信息
-		Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(RedisConstants.FEED_KEY + userId, 0, maxTime, offset, 2L);
-		if (typedTuples == null || typedTuples.isEmpty()) {
+		// 2. 读取收件箱，以及关注的大V的发件箱（大V的笔记不推送到粉丝的收件箱）
+		Set<String> bigAuthorIds = stringRedisTemplate.opsForSet().intersect(RedisConstants.FOLLOW_KEY + userId,
+				RedisConstants.FEED_BIG_AUTHOR_KEY);
+		List<String> feedKeys = new ArrayList<>();
+		feedKeys.add(RedisConstants.FEED_KEY + userId);
+		if (bigAuthorIds != null) {
+			bigAuthorIds.forEach(authorId -> feedKeys.add(RedisConstants.FEED_OUTBOX_KEY + authorId));
+		}
+		// 合并后才能跳过offset条，每个来源最多需要offset + 每页条数
+		long limit = offset + SystemConstants.FEED_PAGE_SIZE;
+		List<Object> resultList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (String feedKey : feedKeys) {
+				stringConnection.zRevRangeByScoreWithScores(feedKey, 0, maxTime, 0, limit);
+			}
+			return null;
+		});
+		List<List<ZSetOperations.TypedTuple<String>>> feedList = new ArrayList<>(resultList.size());
+		for (Object result : resultList) {
+			@SuppressWarnings("unchecked")
+			Set<ZSetOperations.TypedTuple<String>> typedTuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+			if (typedTuples != null && !typedTuples.isEmpty()) {
+				feedList.add(new ArrayList<>(typedTuples));
+			}
+		}
+		List<ZSetOperations.TypedTuple<String>> typedTuples = mergeFeeds(feedList, offset, SystemConstants.FEED_PAGE_SIZE);
+		if (typedTuples.isEmpty()) {
 			return Result.ok();
 		}
-		// 3. 解析博客：id列表，最小值（时间戳）
+		// 3. 解析博客：id列表，最小值（时间戳），以及下一页需要跳过的与最小值相同的条数
 		List<Long> blogIds = new ArrayList<>(typedTuples.size());
 		Long minTime = 0L;
 		Integer os = 1;
@@ -189,17 +399,56 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 				os = 1;
 			}
 		}
-		// 4. 封装信息并返回
-		String blogIdsStr = StrUtil.join(",", blogIds);
-		List<Blog> blogList = this.query().in("id", blogIds).last("ORDER BY Field (id," + blogIdsStr + ")").list();
-		blogList.forEach(blog -> {
-			setBlogUser(blog);
-			isBlogLiked(blog);
-		});
+		if (minTime.equals(maxTime)) {
+			// 这一页都与上一页的最小值相同，需要加上上一页跳过的条数
+			os += offset;
+		}
+		// 4. 批量查询笔记缓存，设置作者和点赞状态
+		List<Blog> blogList = queryBlogs(blogIds);
+		enrichBlogs(blogList);
 		ScrollResult scrollResult = new ScrollResult();
 		scrollResult.setList(blogList);
 		scrollResult.setMinTime(minTime);
 		scrollResult.setOffset(os);
 		return Result.ok(scrollResult);
 	}
+
+	/**
+	 * 多路归并多个按分数从大到小排序的来源，与在一个ZSet中执行ZREVRANGEBYSCORE的顺序一致（分数相同时按成员倒序）
+	 *
+	 * @param feedList 各来源的笔记
+	 * @param offset   跳过的条数
+	 * @param count    返回的条数
+	 * @return 合并后的笔记
+	 */
+	static List<ZSetOperations.TypedTuple<String>> mergeFeeds(List<List<ZSetOperations.TypedTuple<String>>> feedList,
+															   int offset, int count) {
+		Comparator<ZSetOperations.TypedTuple<String>> comparator = Comparator
+				.comparing(ZSetOperations.TypedTuple<String>::getScore)
+				.thenComparing(ZSetOperations.TypedTuple::getValue)
+				.reversed();
+		// 队列中保存 {来源下标, 来源中的位置}，每个来源的当前元素
+		PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, feedList.size()),
+				(a, b) -> comparator.compare(feedList.get(a[0]).get(a[1]), feedList.get(b[0]).get(b[1])));
+		for (int i = 0; i < feedList.size(); i++) {
+			if (!feedList.get(i).isEmpty()) {
+				queue.add(new int[]{i, 0});
+			}
+		}
+		List<ZSetOperations.TypedTuple<String>> mergedList = new ArrayList<>(count);
+		int skipped = 0;
+		while (!queue.isEmpty() && mergedList.size() < count) {
+			int[] head = queue.poll();
+			List<ZSetOperations.TypedTuple<String>> feed = feedList.get(head[0]);
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				mergedList.add(feed.get(head[1]));
+			}
+			if (head[1] + 1 < feed.size()) {
+				queue.add(new int[]{head[0], head[1] + 1});
+			}
+		}
+		return mergedList;
+	}
 }
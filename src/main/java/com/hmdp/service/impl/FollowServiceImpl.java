@@ -76,7 +76,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
 				return Result.fail("操作失败，请稍后重试！");
 			}
 			// 从Redis的set集合中删除数据
-			setOperations.remove(followKey, followUserId);
+			setOperations.remove(followKey, followUserId.toString());
 		}
 		return Result.ok();
 	}
@@ -1,6 +1,6 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.text.CharSequenceUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -11,9 +11,14 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheBloomFilter;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.IBinlogReader;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -21,15 +26,18 @@ import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -40,6 +48,7 @@ import java.util.stream.Collectors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 	@Resource
@@ -48,7 +57,55 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 	@Resource
 	private CacheClient cacheClient;
 
-	public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+	@Resource
+	private CacheBloomFilter cacheBloomFilter;
+
+	@Resource
+	private CacheRebuildExecutor cacheRebuildExecutor;
+
+	/**
+	 * 缓存预热每批查询和写入的店铺数
+	 */
+	@Value("${hmdp.warm-up.shop.batch-size:500}")
+	private int warmUpBatchSize;
+
+	/**
+	 * 预热数据逻辑过期时间的最大随机偏移（秒）
+	 */
+	@Value("${hmdp.warm-up.shop.jitter:10}")
+	private long warmUpJitter;
+
+	/**
+	 * 增量刷新时向前多查询的时间（秒），避免遗漏提交较晚的更新
+	 */
+	@Value("${hmdp.warm-up.shop.overlap:5}")
+	private long warmUpOverlap;
+
+	/**
+	 * 店铺缓存提前刷新系数，小于等于0时不开启
+	 */
+	@Value("${hmdp.cache.early-refresh.beta:1.0}")
+	private double earlyRefreshBeta;
+
+	/**
+	 * 正在订阅binlog时由binlog刷新店铺缓存
+	 */
+	@Resource
+	private IBinlogReader binlogReader;
+
+	/**
+	 * 店铺缓存开启本地缓存和提前刷新，注册店铺ID布隆过滤器
+	 */
+	@PostConstruct
+	private void init() {
+		cacheClient.enableLocalCache(RedisConstants.CACHE_SHOP_KEY, RedisConstants.CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+		if (earlyRefreshBeta > 0) {
+			cacheClient.enableEarlyRefresh(RedisConstants.CACHE_SHOP_KEY, earlyRefreshBeta);
+		}
+		cacheBloomFilter.register("shop", RedisConstants.CACHE_SHOP_KEY, (lastId, limit) ->
+				listObjs(query().select("id").gt("id", lastId).orderByAsc("id").last("limit " + limit).getWrapper(),
+						id -> Long.valueOf(id.toString())));
+	}
 
 	@Override
 	public Result queryById(Long id) {
@@ -168,8 +225,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 				unlock(key);
 				return shop;
 			}
-			// 5.4 已获取到锁，开启独立线程进行缓存重建
-			CACHE_REBUILD_EXECUTOR.submit(() -> {
+			// 5.4 已获取到锁，提交到重建线程池，线程池已满时释放锁，返回旧数据
+			boolean submitted = cacheRebuildExecutor.submit(shopCacheKey, () -> {
 				try {
 					saveShop2Redis(id, RedisConstants.CACHE_SHOP_TTL);
 				} catch (InterruptedException e) {
@@ -179,6 +236,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 					unlock(key);
 				}
 			});
+			if (!submitted) {
+				unlock(key);
+			}
 		}
 		// 6. 返回旧的店铺数据
 		return shop;
@@ -222,6 +282,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 		stringRedisTemplate.delete(key);
 	}
 
+	@Override
+	public Result saveShop(Shop shop) {
+		// 1. 写入数据库
+		save(shop);
+		// 2. 加入布隆过滤器
+		cacheBloomFilter.add(RedisConstants.CACHE_SHOP_KEY, shop.getId());
+		return Result.ok(shop.getId());
+	}
+
 	@Override
 	@Transactional
 	public Result update(Shop shop) {
@@ -231,8 +300,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 			return Result.fail("店铺id不能为空或不存在！");
 		}
 		updateById(shop);
-		// 2. 删除缓存
-		stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+		// 2. 正在订阅binlog时由binlog刷新缓存，未开启CDC或者binlog断线时在事务提交后查询最新数据写回缓存，并通知各节点删除本地缓存，
+		// 避免提交前其他请求把旧数据写回缓存；逻辑过期的缓存不能直接删除，删除后查询会被当作店铺不存在
+		if (!binlogReader.isConnected()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					Shop latest = getById(id);
+					if (latest == null) {
+						cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + id);
+						return;
+					}
+					cacheClient.setBatchWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, Collections.singletonMap(id, latest),
+							RedisConstants.CACHE_SHOP_TTL, 0L, TimeUnit.SECONDS, true);
+				}
+			});
+		}
 		return Result.ok();
 	}
 
@@ -276,26 +359,107 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 			double distance = geoResult.getDistance().getValue();
 			distanceMap.put(shopId, distance);}
 		);
-		// 5. 查询出店铺数据
-		String shopIdStr = CharSequenceUtil.join(",", shopIdList);
-		List<Shop> shopList = this.query().in("id", shopIdList).last("ORDER BY FIELD (id," + shopIdStr + ")").list();
-		// 5. 封装返回数据
-		shopList.forEach(shop -> shop.setDistance(distanceMap.get(shop.getId())));
+		// 5. 批量查询出店铺数据，一次MGET查询缓存，未命中的一次IN查询数据库
+		List<Shop> shopList = cacheClient.queryBatchWithLogicExpiration(RedisConstants.CACHE_SHOP_KEY, shopIdList, Shop.class,
+				idSet -> listByIds(idSet).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+				RedisConstants.CACHE_SHOP_TTL, TimeUnit.SECONDS)
+				.stream().filter(Objects::nonNull)
+				// 缓存中的对象可能被其他请求共享，复制后再设置距离
+				.map(shop -> BeanUtil.copyProperties(shop, Shop.class).setDistance(distanceMap.get(shop.getId())))
+				.collect(Collectors.toList());
+		// 6. 封装返回数据
 		return Result.ok(shopList);
 	}
 
-	// @Scheduled(cron = "0 27 22 * * ?")
-	protected void shopInfoCacheWarmUp() {
-		System.out.println("店铺缓存预热开始！");
-		List<Shop> shopList = query().list();
-		Iterator<Shop> iterator = shopList.iterator();
-		ValueOperations<String, String> operations = stringRedisTemplate.opsForValue();
-		while (iterator.hasNext()) {
-			Shop shop = iterator.next();
-			RedisDataDTO redisDataDTO = new RedisDataDTO(shop, LocalDateTime.now().plusSeconds(RedisConstants.CACHE_SHOP_TTL));
-			operations.set(RedisConstants.CACHE_SHOP_KEY + shop.getId(), JSONUtil.toJsonStr(redisDataDTO));
+	/**
+	 * 店铺缓存增量刷新：首次执行即为启动时预热，Redis中没有预热记录时全量预热，否则只刷新上次之后更新过的店铺
+	 */
+	@Scheduled(initialDelayString = "${hmdp.warm-up.shop.initial-delay:0}", fixedDelayString = "${hmdp.warm-up.shop.interval:60000}")
+	public void refreshShopCache() {
+		String watermark = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_WARM_UP_KEY + "shop");
+		if (watermark == null) {
+			warmUpShopCache();
+			return;
+		}
+		runWarmUp(false, LocalDateTime.parse(watermark));
+	}
+
+	/**
+	 * 店铺缓存全量预热，按ID分页查询，每批通过管道写入Redis
+	 */
+	@Scheduled(cron = "${hmdp.warm-up.shop.full-cron:0 0 4 * * ?}")
+	public void warmUpShopCache() {
+		runWarmUp(true, null);
+	}
+
+	/**
+	 * 执行缓存预热，多个节点同时执行时只有一个节点执行
+	 *
+	 * @param full      是否全量预热
+	 * @param watermark 上次刷新到的更新时间，全量预热时为null
+	 */
+	private void runWarmUp(boolean full, LocalDateTime watermark) {
+		String lockKey = RedisConstants.LOCK_WARM_UP_KEY + "shop";
+		if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1",
+				RedisConstants.LOCK_WARM_UP_TTL, TimeUnit.MINUTES))) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			// 全量预热期间更新的店铺更新时间一定不早于开始前的最大更新时间，下次增量刷新从这里开始
+			LocalDateTime newWatermark = full ? queryMaxUpdateTime() : watermark;
+			long count = 0;
+			long lastId = 0;
+			LocalDateTime lastUpdateTime = full ? null : watermark.minusSeconds(warmUpOverlap);
+			while (true) {
+				// 1. 键集分页查询一批店铺，内存占用与总数据量无关
+				List<Shop> shopList;
+				if (full) {
+					shopList = query().gt("id", lastId).orderByAsc("id").last("limit " + warmUpBatchSize).list();
+				} else {
+					LocalDateTime updateTime = lastUpdateTime;
+					long id = lastId;
+					shopList = query().and(wrapper -> wrapper.gt("update_time", updateTime)
+									.or(w -> w.eq("update_time", updateTime).gt("id", id)))
+							.orderByAsc("update_time", "id").last("limit " + warmUpBatchSize).list();
+				}
+				if (shopList.isEmpty()) {
+					break;
+				}
+				// 2. 通过管道批量写入Redis，增量刷新时通知各节点删除本地缓存
+				Map<Long, Shop> shopMap = shopList.stream().collect(Collectors.toMap(Shop::getId, Function.identity(),
+						(a, b) -> b, LinkedHashMap::new));
+				cacheClient.setBatchWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, shopMap, RedisConstants.CACHE_SHOP_TTL,
+						warmUpJitter, TimeUnit.SECONDS, !full);
+				count += shopList.size();
+				Shop last = shopList.get(shopList.size() - 1);
+				lastId = last.getId();
+				lastUpdateTime = last.getUpdateTime();
+				if (!full && lastUpdateTime != null && lastUpdateTime.isAfter(newWatermark)) {
+					newWatermark = lastUpdateTime;
+				}
+				if (shopList.size() < warmUpBatchSize) {
+					break;
+				}
+			}
+			// 3. 记录本次预热的更新时间
+			stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_WARM_UP_KEY + "shop", newWatermark.toString());
+			if (full || count > 0) {
+				log.info("店铺缓存{}完成！数量：{}，耗时：{}ms", full ? "全量预热" : "增量刷新", count, System.currentTimeMillis() - start);
+			}
+		} catch (Exception e) {
+			log.error("店铺缓存预热失败！", e);
+		} finally {
+			unlock(lockKey);
 		}
-		System.out.println("店铺缓存预热结束！");
+	}
+
+	/**
+	 * 查询店铺的最大更新时间
+	 */
+	private LocalDateTime queryMaxUpdateTime() {
+		Shop shop = query().select("max(update_time) as update_time").one();
+		return shop == null || shop.getUpdateTime() == null ? LocalDateTime.of(1970, 1, 1, 0, 0) : shop.getUpdateTime();
 	}
 
 }
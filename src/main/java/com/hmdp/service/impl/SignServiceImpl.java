@@ -0,0 +1,351 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SignDTO;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * <p>
+ * 服务实现类，签到保存在Redis的月度位图中，每个用户每月4个字节；结束的月份由定时任务批量归档到tb_sign，每个用户每月一行
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+	private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+	/**
+	 * 连续签到跨越多个已归档的月份时，每次查询的月数
+	 */
+	static final int ARCHIVED_PAGE_SIZE = 12;
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * 每批归档的用户数
+	 */
+	@Value("${hmdp.sign.archive-batch-size:500}")
+	private int archiveBatchSize;
+
+	@Override
+	public Result sign() {
+		// 1. 获取当前登录用户和日期
+		Long userId = UserHolder.getUser().getId();
+		LocalDate today = LocalDate.now();
+		String month = today.format(MONTH_FORMATTER);
+		// 2. 通过管道写入当月的签到位图，并记录当月签到过的用户，用于归档
+		List<Object> resultList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.setBit(signKey(userId, month), today.getDayOfMonth() - 1, true);
+			stringConnection.sAdd(RedisConstants.USER_SIGN_USERS_KEY + month, userId.toString());
+			return null;
+		});
+		// 3. 原来的位已经是1，说明今天已经签到
+		if (BooleanUtil.isTrue((Boolean) resultList.get(0))) {
+			return Result.fail("今天已经签到过了！");
+		}
+		return Result.ok();
+	}
+
+	@Override
+	public Result signCount() {
+		// 1. 获取当前登录用户和日期
+		Long userId = UserHolder.getUser().getId();
+		LocalDate today = LocalDate.now();
+		int day = today.getDayOfMonth();
+		LocalDate lastMonth = today.minusMonths(1);
+		int lastMonthDays = lastMonth.lengthOfMonth();
+		byte[] key = signKey(userId, today.format(MONTH_FORMATTER)).getBytes(StandardCharsets.UTF_8);
+		byte[] lastKey = signKey(userId, lastMonth.format(MONTH_FORMATTER)).getBytes(StandardCharsets.UTF_8);
+		// 2. 通过管道一次查询：本月1号到今天的位、本月签到天数、上个月所有的位，BITFIELD的结果最后一天在最低位
+		List<Object> resultList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			connection.stringCommands().bitField(key, BitFieldSubCommands.create()
+					.get(BitFieldSubCommands.BitFieldType.unsigned(day)).valueAt(0));
+			connection.stringCommands().bitCount(key);
+			connection.stringCommands().bitField(lastKey, BitFieldSubCommands.create()
+					.get(BitFieldSubCommands.BitFieldType.unsigned(lastMonthDays)).valueAt(0));
+			return null;
+		});
+		long bits = firstValue(resultList.get(0));
+		// 3. 计算连续签到天数，连续到上个月1号时继续计算已归档的月份
+		int streak = streak(bits, day, firstValue(resultList.get(2)), lastMonthDays,
+				() -> archivedStreak(userId, lastMonth.minusMonths(1).withDayOfMonth(1)));
+		// 4. 返回统计结果
+		SignDTO signDTO = new SignDTO();
+		signDTO.setSignedToday((bits & 1) == 1);
+		signDTO.setStreak(streak);
+		signDTO.setMonthCount((Long) resultList.get(1));
+		return Result.ok(signDTO);
+	}
+
+	/**
+	 * 连续签到天数：今天还没有签到时从昨天开始计算，连续到本月1号时继续计算上个月，再继续计算已归档的月份
+	 *
+	 * @param bits           本月1号到今天的位，今天在最低位
+	 * @param day            今天是本月第几天
+	 * @param lastBits       上个月所有的位，最后一天在最低位
+	 * @param lastMonthDays  上个月的天数
+	 * @param archivedStreak 上个月全部签到时，查询已归档月份的连续签到天数
+	 * @return 连续签到天数
+	 */
+	static int streak(long bits, int day, long lastBits, int lastMonthDays, IntSupplier archivedStreak) {
+		boolean signedToday = (bits & 1) == 1;
+		int days = signedToday ? day : day - 1;
+		int streak = trailingDays(signedToday ? bits : bits >>> 1, days);
+		if (streak == days) {
+			int lastStreak = trailingDays(lastBits, lastMonthDays);
+			streak += lastStreak;
+			if (lastStreak == lastMonthDays) {
+				streak += archivedStreak.getAsInt();
+			}
+		}
+		return streak;
+	}
+
+	/**
+	 * 从已归档的月份中计算连续签到天数
+	 *
+	 * @param userId 用户ID
+	 * @param month  开始的月份（当月第一天）
+	 * @return 连续签到天数
+	 */
+	private int archivedStreak(Long userId, LocalDate month) {
+		return archivedStreak(month, expected -> query().eq("user_id", userId).le("date", expected)
+				.orderByDesc("date").last("limit " + ARCHIVED_PAGE_SIZE).list());
+	}
+
+	/**
+	 * 从已归档的月份中计算连续签到天数，从month开始往前，直到某个月的最后几天没有签到
+	 *
+	 * @param month      开始的月份（当月第一天）
+	 * @param pageLoader 查询不晚于指定月份的归档，按月份倒序，每次最多ARCHIVED_PAGE_SIZE条
+	 * @return 连续签到天数
+	 */
+	static int archivedStreak(LocalDate month, Function<LocalDate, List<Sign>> pageLoader) {
+		int streak = 0;
+		LocalDate expected = month;
+		while (true) {
+			List<Sign> signList = pageLoader.apply(expected);
+			for (Sign sign : signList) {
+				// 中间缺少的月份没有签到
+				if (!expected.equals(sign.getDate())) {
+					return streak;
+				}
+				int monthDays = expected.lengthOfMonth();
+				int monthStreak = trailingDays(archivedBits(sign.getBits(), monthDays), monthDays);
+				streak += monthStreak;
+				if (monthStreak < monthDays) {
+					return streak;
+				}
+				expected = expected.minusMonths(1);
+			}
+			if (signList.size() < ARCHIVED_PAGE_SIZE) {
+				return streak;
+			}
+		}
+	}
+
+	/**
+	 * 归档签到位图，多个节点同时执行时只有一个节点执行：上个月的位图归档到tb_sign，仍保留在Redis中用于计算跨月的连续签到；
+	 * 上上个月的位图确认归档后从Redis删除。重复执行时已归档的月份会跳过，写入失败的批次在下次重新写入
+	 */
+	@Scheduled(cron = "${hmdp.sign.archive-cron:0 30 3 * * ?}")
+	public void archive() {
+		String lockKey = RedisConstants.LOCK_SIGN_ARCHIVE_KEY;
+		if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1",
+				RedisConstants.LOCK_SIGN_ARCHIVE_TTL, TimeUnit.SECONDS))) {
+			return;
+		}
+		try {
+			LocalDate today = LocalDate.now();
+			archiveMonth(today.minusMonths(1));
+			LocalDate oldMonth = today.minusMonths(2);
+			archiveMonth(oldMonth);
+			purgeMonth(oldMonth);
+		} catch (Exception e) {
+			log.error("签到归档失败！", e);
+		} finally {
+			stringRedisTemplate.delete(lockKey);
+		}
+	}
+
+	/**
+	 * 分批归档一个月的签到位图：遍历当月签到过的用户，每批一次MGET读取位图，一条INSERT语句写入
+	 *
+	 * @param month 月份
+	 */
+	private void archiveMonth(LocalDate month) {
+		String monthStr = month.format(MONTH_FORMATTER);
+		String usersKey = RedisConstants.USER_SIGN_USERS_KEY + monthStr;
+		String archivedKey = RedisConstants.USER_SIGN_ARCHIVED_KEY + monthStr;
+		if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(archivedKey))
+				|| !BooleanUtil.isTrue(stringRedisTemplate.hasKey(usersKey))) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		long count = 0;
+		List<Long> userIds = new ArrayList<>(archiveBatchSize);
+		try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(usersKey,
+				ScanOptions.scanOptions().count(archiveBatchSize).build())) {
+			while (cursor.hasNext()) {
+				userIds.add(Long.valueOf(cursor.next()));
+				if (userIds.size() >= archiveBatchSize) {
+					count += archiveBatch(userIds, month);
+					userIds.clear();
+				}
+			}
+		}
+		if (!userIds.isEmpty()) {
+			count += archiveBatch(userIds, month);
+		}
+		// 全部写入后才标记为已归档
+		stringRedisTemplate.opsForValue().set(archivedKey, String.valueOf(count),
+				RedisConstants.USER_SIGN_ARCHIVED_TTL, TimeUnit.DAYS);
+		log.debug("签到归档，月份：{}，用户数：{}，耗时：{}ms", monthStr, count, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 归档一批用户一个月的签到位图
+	 *
+	 * @param userIds 用户ID
+	 * @param month   月份
+	 * @return 归档的用户数
+	 */
+	private int archiveBatch(List<Long> userIds, LocalDate month) {
+		String monthStr = month.format(MONTH_FORMATTER);
+		// 位图按字节读取，一次MGET读取这一批用户的位图
+		byte[][] rawKeys = userIds.stream().map(userId -> signKey(userId, monthStr).getBytes(StandardCharsets.UTF_8))
+				.toArray(byte[][]::new);
+		List<byte[]> bitmapList = stringRedisTemplate.execute(
+				(RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+		List<Sign> signList = new ArrayList<>(userIds.size());
+		for (int i = 0; i < userIds.size(); i++) {
+			byte[] bitmap = bitmapList == null ? null : bitmapList.get(i);
+			if (bitmap == null) {
+				continue;
+			}
+			signList.add(new Sign()
+					.setUserId(userIds.get(i))
+					.setYear(month.getYear())
+					.setMonth(month.getMonthValue())
+					.setDate(month.withDayOfMonth(1))
+					.setBits(toBits(bitmap)));
+		}
+		if (!signList.isEmpty()) {
+			baseMapper.insertOrUpdateBatch(signList);
+		}
+		return signList.size();
+	}
+
+	/**
+	 * 删除已归档月份的签到位图
+	 *
+	 * @param month 月份
+	 */
+	private void purgeMonth(LocalDate month) {
+		String monthStr = month.format(MONTH_FORMATTER);
+		String usersKey = RedisConstants.USER_SIGN_USERS_KEY + monthStr;
+		if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(RedisConstants.USER_SIGN_ARCHIVED_KEY + monthStr))
+				|| !BooleanUtil.isTrue(stringRedisTemplate.hasKey(usersKey))) {
+			return;
+		}
+		List<String> keys = new ArrayList<>(archiveBatchSize);
+		try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(usersKey,
+				ScanOptions.scanOptions().count(archiveBatchSize).build())) {
+			while (cursor.hasNext()) {
+				keys.add(signKey(Long.valueOf(cursor.next()), monthStr));
+				if (keys.size() >= archiveBatchSize) {
+					stringRedisTemplate.delete(keys);
+					keys.clear();
+				}
+			}
+		}
+		if (!keys.isEmpty()) {
+			stringRedisTemplate.delete(keys);
+		}
+		stringRedisTemplate.delete(usersKey);
+	}
+
+	private static String signKey(Long userId, String month) {
+		return RedisConstants.USER_SIGN_KEY + userId + ":" + month;
+	}
+
+	/**
+	 * BITFIELD GET的结果，key不存在时为0
+	 */
+	private static long firstValue(Object result) {
+		@SuppressWarnings("unchecked")
+		List<Long> values = (List<Long>) result;
+		return values == null || values.isEmpty() || values.get(0) == null ? 0 : values.get(0);
+	}
+
+	/**
+	 * 从最低位开始连续为1的位数，即从最后一天往前连续签到的天数
+	 *
+	 * @param bits 位，最后一天在最低位
+	 * @param days 有效的位数
+	 * @return 连续签到天数
+	 */
+	static int trailingDays(long bits, int days) {
+		return Math.min(Long.numberOfTrailingZeros(~bits), days);
+	}
+
+	/**
+	 * 归档的签到位图转换为与BITFIELD GET相同的顺序：第d天为第d-1位转换为最后一天在最低位
+	 *
+	 * @param bits      归档的签到位图
+	 * @param monthDays 当月天数
+	 * @return 位，最后一天在最低位
+	 */
+	static long archivedBits(int bits, int monthDays) {
+		return (Integer.reverse(bits) >>> (Integer.SIZE - monthDays)) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Redis位图转换为签到位图：Redis位图中第d天是第(d-1)/8个字节的第(d-1)%8位（从高位开始），转换后第d天为第d-1位（从低位开始）
+	 *
+	 * @param bitmap Redis位图
+	 * @return 签到位图
+	 */
+	static int toBits(byte[] bitmap) {
+		int bits = 0;
+		int length = Math.min(bitmap.length * 8, 31);
+		for (int i = 0; i < length; i++) {
+			if ((bitmap[i / 8] >> (7 - i % 8) & 1) == 1) {
+				bits |= 1 << i;
+			}
+		}
+		return bits;
+	}
+}
@@ -1,8 +1,6 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
@@ -11,17 +9,22 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILoginSessionManager;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
@@ -39,6 +42,25 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 	@Resource
 	private StringRedisTemplate stringRedisTemplate;
 
+	@Resource
+	private CacheClient cacheClient;
+
+	@Resource
+	private CacheBloomFilter cacheBloomFilter;
+
+	@Resource
+	private ILoginSessionManager loginSessionManager;
+
+	/**
+	 * 注册用户ID布隆过滤器
+	 */
+	@PostConstruct
+	private void init() {
+		cacheBloomFilter.register("user", RedisConstants.CACHE_USER_KEY, (lastId, limit) ->
+				listObjs(query().select("id").gt("id", lastId).orderByAsc("id").last("limit " + limit).getWrapper(),
+						id -> Long.valueOf(id.toString())));
+	}
+
 	@Override
 	public Result sendCode(String phone, HttpSession session) {
 		// 1. 校验手机号
@@ -72,26 +94,47 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 		if (user == null) {
 			user = createNewUser(phone);
 		}
-		// 5. 生成Token
-		String token = UUID.randomUUID().toString(true);
-		// 6. 将用户存入Redis
+		// 5. 创建登录会话，生成Token
 		UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-		Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(), CopyOptions.create()
-				.setIgnoreNullValue(true)
-				.setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-		String userKey = RedisConstants.LOGIN_USER_KEY + token;
-		stringRedisTemplate.opsForHash().putAll(userKey, userMap);
-		stringRedisTemplate.expire(userKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
-		// 7. 返回token
+		String token = loginSessionManager.create(userDTO);
+		// 6. 返回token
 		return Result.ok(token);
 	}
 
+	@Override
+	public Result logout(String token) {
+		// 删除当前token的会话，各节点的本地缓存同时失效
+		loginSessionManager.invalidate(token);
+		return Result.ok();
+	}
+
+	@Override
+	public Result logoutAll() {
+		// 删除当前用户在所有设备上的会话，返回删除的会话数
+		return Result.ok(loginSessionManager.invalidateAll(UserHolder.getUser().getId()));
+	}
+
+	/**
+	 * 批量查询用户，一次MGET查询缓存，未命中的用户一次IN查询数据库
+	 *
+	 * @param ids 用户ID列表
+	 * @return 与ids顺序一致的用户列表，不存在的用户为null
+	 */
+	@Override
+	public List<UserDTO> queryUserDTOs(List<Long> ids) {
+		return cacheClient.queryBatch(RedisConstants.CACHE_USER_KEY, ids, UserDTO.class,
+				idSet -> listByIds(idSet).stream()
+						.collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+				RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
+	}
+
 	private User createNewUser(String phone) {
 		User user = new User();
 		user.setPhone(phone);
 		String nickName = USER_NICK_NAME_PREFIX + RandomUtil.randomString(10);
 		user.setNickName(nickName);
 		this.save(user);
+		cacheBloomFilter.add(RedisConstants.CACHE_USER_KEY, user.getId());
 		return user;
 	}
 }
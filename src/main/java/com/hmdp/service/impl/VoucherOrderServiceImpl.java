@@ -1,36 +1,44 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.ThreadUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.IIdWorker;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockGate;
+import com.hmdp.utils.SeckillStockSharding;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -48,16 +56,24 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 	private ISeckillVoucherService iSeckillVoucherService;
 
 	@Resource
-	private RedisIdWorker redisIdWorker;
+	private IIdWorker idWorker;
 
 	@Resource
 	private StringRedisTemplate stringRedisTemplate;
 
 	@Resource
-	private RedissonClient redissonClient;
+	private SeckillStockGate seckillStockGate;
+
+	@Resource
+	private SeckillStockSharding seckillStockSharding;
 
 	private static final DefaultRedisScript<Long> DEFAULT_REDIS_SCRIPT;
 
+	/**
+	 * 当前类的代理对象，保证消费线程中调用的事务生效
+	 */
+	@Lazy
+	@Resource
 	private IVoucherOrderService proxy;
 
 	/**
@@ -65,10 +81,49 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 	 */
 	// private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
+	/**
+	 * 本节点消费者名称前缀：c-进程号@主机名-，保证集群中每个消费者名称唯一
+	 */
+	private static final String CONSUMER_NAME_PREFIX = "c-" + ManagementFactory.getRuntimeMXBean().getName() + "-";
+
+	/**
+	 * 消费者线程数
+	 */
+	@Value("${hmdp.order.consumer-count:4}")
+	private int consumerCount;
+
+	/**
+	 * 每次从Stream队列读取的消息数
+	 */
+	@Value("${hmdp.order.batch-size:50}")
+	private int batchSize;
+
+	/**
+	 * 恢复任务认领pending消息时使用的消费者名称
+	 */
+	private static final String RECOVERY_CONSUMER_NAME = CONSUMER_NAME_PREFIX + "recovery";
+
+	/**
+	 * pending消息空闲超过该时间（毫秒）才会被恢复任务认领
+	 */
+	@Value("${hmdp.order.recovery.min-idle:30000}")
+	private long recoveryMinIdle;
+
+	/**
+	 * 最大投递次数，达到后转入死信队列
+	 */
+	@Value("${hmdp.order.recovery.max-deliveries:3}")
+	private long recoveryMaxDeliveries;
+
+	/**
+	 * 存在分片Stream队列时，一轮没有读到消息后的等待时间（毫秒）
+	 */
+	private static final long SHARD_POLL_INTERVAL = 100L;
+
 	/**
 	 * 执行队列任务的线程池
 	 */
-	public static final ExecutorService ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+	private ExecutorService orderExecutor;
 
 
 	static {
@@ -79,46 +134,70 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 	}
 
 	/**
-	 * 类初始化之后开启线程，执行任务
+	 * 类初始化之后开启消费者线程，执行任务
 	 */
 	@PostConstruct
 	private void init() {
-		ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+		orderExecutor = Executors.newFixedThreadPool(consumerCount, ThreadUtil.newNamedThreadFactory("seckill-order-", false));
+		for (int i = 0; i < consumerCount; i++) {
+			orderExecutor.submit(new VoucherOrderHandler(CONSUMER_NAME_PREFIX + i));
+		}
+	}
+
+	@PreDestroy
+	private void destroy() {
+		orderExecutor.shutdownNow();
 	}
 
 	private class VoucherOrderHandler implements Runnable {
+
+		private final Consumer consumer;
+
+		private VoucherOrderHandler(String consumerName) {
+			this.consumer = Consumer.from(RedisConstants.STREAM_ORDER_GROUP, consumerName);
+		}
+
 		/**
-		 * 基于Redis的队列任务
+		 * 基于Redis的队列任务，批量消费：全局队列和所有分片队列依次读取，分片队列的key不在同一个slot，需要分别读取
+		 * 只有全局队列时阻塞读取；存在分片队列时不阻塞，一轮都没有消息时短暂等待
 		 */
 		@Override
 		public void run() {
 			StreamOperations<String, Object, Object> streamOperations = stringRedisTemplate.opsForStream();
-			while (true) {
+			while (!Thread.currentThread().isInterrupted()) {
 				try {
-					// 1. 获取Redis队列消息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
-					List<MapRecord<String, Object, Object>> orderList = streamOperations.read(Consumer.from("g1", "c1"),
-							StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-							StreamOffset.create(RedisConstants.STREAM_ORDER_KEY, ReadOffset.lastConsumed()));
-					// 2. 判断是否获取成功
-					if (orderList == null || orderList.isEmpty()) {
-						// 队列中没有消息
-						Thread.sleep(20);
-						continue;
+					List<String> streamKeys = seckillStockSharding.getOrderStreamKeys();
+					StreamReadOptions readOptions = StreamReadOptions.empty().count(batchSize);
+					if (streamKeys.size() == 1) {
+						readOptions = readOptions.block(Duration.ofSeconds(2));
+					}
+					boolean idle = true;
+					for (String streamKey : streamKeys) {
+						// 1. 批量获取Redis队列消息 XREADGROUP GROUP g1 c-x COUNT n [BLOCK 2000] STREAMS stream.orders >
+						List<MapRecord<String, Object, Object>> orderList = streamOperations.read(consumer, readOptions,
+								StreamOffset.create(streamKey, ReadOffset.lastConsumed()));
+						// 2. 判断是否获取成功
+						if (orderList == null || orderList.isEmpty()) {
+							// 队列中没有消息
+							continue;
+						}
+						// 3. 批量下单并确认消息
+						idle = false;
+						handleVoucherOrderBatch(streamOperations, orderList);
 					}
-					// 3. 处理消息
-					// 3.1. 获取消息，并将消息转换成订单对象
-					// 解析消息中的订单信息 String为消息的id Object Object 为消息的k-v键值对
-					MapRecord<String, Object, Object> entry = orderList.get(0);
-					Map<Object, Object> orderMap = entry.getValue();
-					VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(orderMap, new VoucherOrder(), true);
-					// 3.2 下单
-					handleVoucherOrder(voucherOrder);
-					// 4. 确认已消费 SACK KEY GROUP ID
-					streamOperations.acknowledge(RedisConstants.STREAM_ORDER_KEY, "g1", entry.getId());
+					if (idle && streamKeys.size() > 1) {
+						TimeUnit.MILLISECONDS.sleep(SHARD_POLL_INTERVAL);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 				} catch (Exception e) {
 					log.error("异步创建订单异常！", e);
-					// 消息处理时出现异常，会把消息放到Redis的pending-list中,因此需要处理异常的消息
-					handlePendingList();
+					// 消息处理时出现异常，会留在Redis的pending-list中，由恢复任务统一认领重试，不阻塞消费线程
+					try {
+						TimeUnit.MILLISECONDS.sleep(20);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
 				}
 			}
 		}
@@ -141,41 +220,167 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 		// }
 	}
 
-	private void handlePendingList() {
+	/**
+	 * 恢复pending-list中的订单：扫描全局队列和所有分片队列，认领空闲超时的消息批量重试，
+	 * 投递次数达到上限的消息转入死信队列，避免毒消息反复重试；最后删除已经消费完的旧分片队列
+	 */
+	@Scheduled(fixedDelayString = "${hmdp.order.recovery.interval:5000}")
+	public void recoverPendingOrders() {
 		StreamOperations<String, Object, Object> streamOperations = stringRedisTemplate.opsForStream();
+		for (String streamKey : seckillStockSharding.getOrderStreamKeys()) {
+			recoverPendingOrders(streamOperations, streamKey);
+			removeIdleConsumers(streamOperations, streamKey);
+		}
+		seckillStockSharding.cleanRetiredStreams();
+	}
+
+	/**
+	 * 恢复一个Stream队列pending-list中的订单：扫描消费者组内所有消费者的pending消息
+	 *
+	 * @param streamOperations Stream操作对象
+	 * @param streamKey        Stream队列key
+	 */
+	private void recoverPendingOrders(StreamOperations<String, Object, Object> streamOperations, String streamKey) {
+		Range<?> range = Range.unbounded();
 		while (true) {
 			try {
-				// 1. 获取Redis的PendingList消息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.orders 0
-				List<MapRecord<String, Object, Object>> orderList = streamOperations.read(Consumer.from("g1", "c1"),
-						StreamReadOptions.empty().count(1),
-						StreamOffset.create(RedisConstants.STREAM_ORDER_KEY, ReadOffset.from("0")));
-				// 2. 判断是否获取成功
-				if (orderList == null || orderList.isEmpty()) {
-					// 队列中没有消息
-					Thread.sleep(20);
+				// 1. 扫描pending-list XPENDING stream.orders g1 - + n
+				PendingMessages pendingMessages = streamOperations.pending(streamKey,
+						RedisConstants.STREAM_ORDER_GROUP, range, batchSize);
+				if (pendingMessages.isEmpty()) {
 					break;
 				}
-				// 3. 处理消息
-				// 3.1. 获取消息，并将消息转换成订单对象
-				// 解析消息中的订单信息 String为消息的id Object Object 为消息的k-v键值对
-				MapRecord<String, Object, Object> entry = orderList.get(0);
-				Map<Object, Object> orderMap = entry.getValue();
-				VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(orderMap, new VoucherOrder(), true);
-				// 3.2 下单
-				handleVoucherOrder(voucherOrder);
-				// 4. 确认已消费 SACK KEY GROUP ID
-				streamOperations.acknowledge(RedisConstants.STREAM_ORDER_KEY, "g1", entry.getId());
-			} catch (Exception e) {
-				log.error("处理pending-list订单异常！", e);
-				try {
-					TimeUnit.MILLISECONDS.sleep(20);
-				} catch (InterruptedException ex) {
-					throw new RuntimeException(ex);
+				// 2. 按投递次数区分需要重试和转入死信队列的空闲消息
+				List<RecordId> retryIds = new ArrayList<>();
+				List<RecordId> deadIds = new ArrayList<>();
+				for (PendingMessage pendingMessage : pendingMessages) {
+					if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < recoveryMinIdle) {
+						continue;
+					}
+					if (pendingMessage.getTotalDeliveryCount() >= recoveryMaxDeliveries) {
+						deadIds.add(pendingMessage.getId());
+					} else {
+						retryIds.add(pendingMessage.getId());
+					}
+				}
+				// 3. 认领并处理
+				if (!retryIds.isEmpty()) {
+					retryPendingOrders(streamOperations, claimPendingOrders(streamKey, retryIds));
+				}
+				if (!deadIds.isEmpty()) {
+					moveToDeadLetter(streamOperations, claimPendingOrders(streamKey, deadIds));
 				}
+				if (pendingMessages.size() < batchSize) {
+					break;
+				}
+				// 4. 下一页从最后一条消息的下一个ID开始
+				RecordId lastId = pendingMessages.get(pendingMessages.size() - 1).getId();
+				range = Range.rightUnbounded(Range.Bound.inclusive(RecordId.of(lastId.getTimestamp(), lastId.getSequence() + 1).getValue()));
+			} catch (Exception e) {
+				log.error("处理pending-list订单异常！队列：{}", streamKey, e);
+				break;
 			}
 		}
 	}
 
+	/**
+	 * 认领空闲超时的pending消息 XCLAIM stream.orders g1 c-x-recovery minIdle ID [ID ...]
+	 * 认领带有空闲时间条件，多个节点同时扫描时同一条消息只会被一个节点认领
+	 *
+	 * @param streamKey Stream队列key
+	 * @param recordIds 消息ID
+	 * @return 认领成功的消息
+	 */
+	private List<StringRecord> claimPendingOrders(String streamKey, List<RecordId> recordIds) {
+		List<StringRecord> recordList = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+				((StringRedisConnection) connection).xClaim(streamKey, RedisConstants.STREAM_ORDER_GROUP,
+						RECOVERY_CONSUMER_NAME, Duration.ofMillis(recoveryMinIdle), recordIds.toArray(new RecordId[0])));
+		return recordList == null ? Collections.emptyList() : recordList;
+	}
+
+	/**
+	 * 批量重试认领到的消息，整批失败时逐条重试，只让出错的消息继续留在pending-list中
+	 *
+	 * @param streamOperations Stream操作对象
+	 * @param recordList       认领到的消息
+	 */
+	private void retryPendingOrders(StreamOperations<String, Object, Object> streamOperations, List<StringRecord> recordList) {
+		if (recordList.isEmpty()) {
+			return;
+		}
+		try {
+			handleVoucherOrderBatch(streamOperations, recordList);
+			return;
+		} catch (Exception e) {
+			log.error("批量重试pending-list订单失败，逐条重试！", e);
+		}
+		for (StringRecord record : recordList) {
+			try {
+				handleVoucherOrderBatch(streamOperations, Collections.singletonList(record));
+			} catch (Exception e) {
+				log.error("重试pending-list订单失败！消息ID：{}", record.getId(), e);
+			}
+		}
+	}
+
+	/**
+	 * 将多次投递仍失败的消息转入死信队列并确认
+	 *
+	 * @param streamOperations Stream操作对象
+	 * @param recordList       认领到的消息
+	 */
+	private void moveToDeadLetter(StreamOperations<String, Object, Object> streamOperations, List<StringRecord> recordList) {
+		for (StringRecord record : recordList) {
+			Map<String, String> deadMap = new HashMap<>(record.getValue());
+			deadMap.put("stream", record.getStream());
+			deadMap.put("recordId", record.getId().getValue());
+			streamOperations.add(RedisConstants.STREAM_ORDER_DEAD_KEY, deadMap);
+			streamOperations.acknowledge(record.getStream(), RedisConstants.STREAM_ORDER_GROUP, record.getId());
+			log.error("订单消息多次处理失败，已转入死信队列！消息ID：{}，内容：{}", record.getId(), record.getValue());
+		}
+	}
+
+	/**
+	 * 清理已下线节点遗留的、没有pending消息的消费者
+	 *
+	 * @param streamOperations Stream操作对象
+	 * @param streamKey        Stream队列key
+	 */
+	private void removeIdleConsumers(StreamOperations<String, Object, Object> streamOperations, String streamKey) {
+		try {
+			streamOperations.consumers(streamKey, RedisConstants.STREAM_ORDER_GROUP).forEach(consumerInfo -> {
+				if (consumerInfo.pendingCount() == 0 && consumerInfo.idleTimeMs() > RedisConstants.STREAM_CONSUMER_IDLE_TTL) {
+					streamOperations.deleteConsumer(streamKey,
+							Consumer.from(RedisConstants.STREAM_ORDER_GROUP, consumerInfo.consumerName()));
+				}
+			});
+		} catch (Exception e) {
+			log.error("清理空闲消费者异常！", e);
+		}
+	}
+
+	/**
+	 * 批量处理一批Stream消息：一次事务落库，一次XACK确认，一批消息来自同一个Stream队列
+	 *
+	 * @param streamOperations Stream操作对象
+	 * @param orderList        消息列表
+	 */
+	private void handleVoucherOrderBatch(StreamOperations<String, Object, Object> streamOperations,
+										 List<? extends MapRecord<String, ?, ?>> orderList) {
+		// 1. 解析消息中的订单信息 String为消息的id Object Object 为消息的k-v键值对
+		List<VoucherOrder> voucherOrderList = new ArrayList<>(orderList.size());
+		String[] recordIds = new String[orderList.size()];
+		for (int i = 0; i < orderList.size(); i++) {
+			MapRecord<String, ?, ?> entry = orderList.get(i);
+			voucherOrderList.add(BeanUtil.fillBeanWithMap(entry.getValue(), new VoucherOrder(), true));
+			recordIds[i] = entry.getId().getValue();
+		}
+		// 2. 批量下单
+		proxy.createVoucherOrders(voucherOrderList);
+		// 3. 确认已消费 XACK KEY GROUP ID [ID ...]
+		streamOperations.acknowledge(orderList.get(0).getStream(), RedisConstants.STREAM_ORDER_GROUP, recordIds);
+	}
+
 	/**
 	 * 基于Redis的Stream队列异步下单
 	 *
@@ -184,74 +389,108 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 	 */
 	@Override
 	public Result seckillVoucher(Long voucherId) {
+		// 0. 本地已知售罄，直接返回，不再访问Redis
+		if (seckillStockGate.isSoldOut(voucherId)) {
+			return Result.fail("库存不足");
+		}
 		// 获取用户ID
 		Long userId = UserHolder.getUser().getId();
 		// 获取订单ID
-		Long orderId = redisIdWorker.nextId("order");
+		Long orderId = idWorker.nextId("order");
 		// 1. 执行脚本，判断购买资格和库存
-		Long result = stringRedisTemplate.execute(
-				DEFAULT_REDIS_SCRIPT,
-				Collections.emptyList(),
-				voucherId.toString(),
-				userId.toString(),
-				orderId.toString()
-		);
+		Long result;
+		int shardCount = seckillStockSharding.getShardCount(voucherId);
+		if (shardCount > 1) {
+			// 库存已分片，按用户ID选择分片
+			result = seckillStockSharding.seckill(voucherId, userId, orderId);
+		} else {
+			result = stringRedisTemplate.execute(
+					DEFAULT_REDIS_SCRIPT,
+					Collections.emptyList(),
+					voucherId.toString(),
+					userId.toString(),
+					orderId.toString()
+			);
+		}
 		// 2. 判断返回结果
 		if (result != 0) {
 			// 2.1 不为0，无购买资格，报错
-			return Result.fail(result == 1 ? "库存不足" : "请勿重复下单");
+			if (result == 1) {
+				// 库存不足，记录本地售罄标记
+				seckillStockGate.markSoldOut(voucherId);
+				return Result.fail("库存不足");
+			}
+			return Result.fail("请勿重复下单");
 		}
-		// 拿到代理对象进行方法调用，避免事务失效
-		proxy = (IVoucherOrderService) AopContext.currentProxy();
 		// 3. 返回订单ID
 		return Result.ok(orderId);
 	}
 
 	/**
-	 * 基于队列处理线程中的秒杀订单
+	 * 基于队列批量创建订单：按优惠券分组扣减库存，多行插入订单
 	 *
-	 * @param voucherOrder 秒杀优惠券订单
+	 * @param voucherOrderList 订单列表
 	 */
-	private void handleVoucherOrder(VoucherOrder voucherOrder) {
-		// 获取用户
-		Long userId = voucherOrder.getUserId();
-		// 获取锁
-		RLock lock = redissonClient.getLock(RedisConstants.SECKILL_ORDER_KEY + userId);
-		boolean result = lock.tryLock();
-		if (!result) {
-			log.info("请勿重复下单！");
+	@Transactional
+	@Override
+	public void createVoucherOrders(List<VoucherOrder> voucherOrderList) {
+		// 1. 判断一人一单，同时过滤重复投递的消息，一次查询出这批用户已有的订单
+		Set<Long> voucherIds = voucherOrderList.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+		Set<Long> userIds = voucherOrderList.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+		Set<String> orderedSet = query().select("user_id", "voucher_id")
+				.in("voucher_id", voucherIds).in("user_id", userIds).list()
+				.stream().map(order -> order.getUserId() + ":" + order.getVoucherId()).collect(Collectors.toSet());
+		List<VoucherOrder> newOrderList = new ArrayList<>(voucherOrderList.size());
+		for (VoucherOrder voucherOrder : voucherOrderList) {
+			if (!orderedSet.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+				log.error("每位用户只能购买一次！订单ID：{}", voucherOrder.getId());
+				continue;
+			}
+			newOrderList.add(voucherOrder);
 		}
-		// 创建订单
-		try {
-			// 由于是同一类的方法调用，默认是this当前对象，会导致事务失效。需要使用当前类的代理对象
-			// 默认是通过JDK动态代理，基于接口，所以这里需要在接口中创建对应方法。而CGLib动态代理基于类。
-			proxy.createVoucherOrder(voucherOrder);
-		} finally {
-			lock.unlock();
+		if (newOrderList.isEmpty()) {
+			return;
+		}
+		// 2. 按优惠券分组，每个优惠券只扣减一次库存，只有扣减成功的订单才会创建
+		Map<Long, List<VoucherOrder>> voucherOrderMap = newOrderList.stream()
+				.collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+		List<VoucherOrder> createOrderList = new ArrayList<>(newOrderList.size());
+		voucherOrderMap.forEach((voucherId, orderList) -> {
+			int granted = deductStock(voucherId, orderList.size());
+			createOrderList.addAll(orderList.subList(0, granted));
+			for (VoucherOrder voucherOrder : orderList.subList(granted, orderList.size())) {
+				log.error("库存不足！优惠券ID：{}，订单ID：{}", voucherId, voucherOrder.getId());
+			}
+		});
+		// 3. 多行插入创建订单
+		if (!createOrderList.isEmpty()) {
+			getBaseMapper().insertBatch(createOrderList);
 		}
 	}
 
 	/**
-	 * 基于队列创建订单
+	 * 扣减一个优惠券的库存：先尝试整批扣减，库存不足时锁定库存行，扣减剩余的库存
 	 *
-	 * @param voucherOrder 订单
+	 * @param voucherId 优惠券ID
+	 * @param count     需要扣减的数量
+	 * @return 实际扣减的数量，按到达顺序创建前这么多个订单
 	 */
-	@Transactional
-	@Override
-	public void createVoucherOrder(VoucherOrder voucherOrder) {
-		// 判断一人一单
-		Long voucherId = voucherOrder.getVoucherId();
-		Integer count = query().eq("user_id", voucherOrder.getUserId()).eq("voucher_id", voucherId).count();
-		if (count > 0) {
-			log.error("每位用户只能购买一次！");
+	private int deductStock(Long voucherId, int count) {
+		// 1. 库存充足时整批扣减
+		boolean success = iSeckillVoucherService.update().setSql("stock = stock - " + count)
+				.eq("voucher_id", voucherId).ge("stock", count).update();
+		if (success) {
+			return count;
 		}
-		// 5. 扣减库存
-		boolean success = iSeckillVoucherService.update().setSql("stock = stock - 1").eq("voucher_id", voucherId).gt("stock", 0).update();
-		if (!success) {
-			log.error("库存不足！");
+		// 2. 库存不足，在当前事务中锁定库存行，只扣减剩余的库存
+		SeckillVoucher seckillVoucher = iSeckillVoucherService.query().eq("voucher_id", voucherId)
+				.last("for update").one();
+		int granted = seckillVoucher == null ? 0 : Math.min(count, Math.max(seckillVoucher.getStock(), 0));
+		if (granted > 0) {
+			iSeckillVoucherService.update().setSql("stock = stock - " + granted)
+					.eq("voucher_id", voucherId).update();
 		}
-		// 6. 创建订单
-		save(voucherOrder);
+		return granted;
 	}
 
 	/**
@@ -278,7 +517,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 	// 	// 2.2 为0，有购买资格，将下单信息保存到阻塞队列
 	// 	// 2.2.1 创建订单
 	// 	VoucherOrder voucherOrder = new VoucherOrder();
-	// 	Long orderId = redisIdWorker.nextId("order");
+	// 	Long orderId = idWorker.nextId("order");
 	// 	voucherOrder.setId(orderId);
 	// 	voucherOrder.setUserId(userId);
 	// 	voucherOrder.setVoucherId(voucherId);
@@ -356,7 +595,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 		}
 		// 6. 创建订单
 		VoucherOrder voucherOrder = new VoucherOrder();
-		Long orderId = redisIdWorker.nextId("order");
+		Long orderId = idWorker.nextId("order");
 		voucherOrder.setId(orderId);
 		voucherOrder.setUserId(userId);
 		voucherOrder.setVoucherId(voucherId);
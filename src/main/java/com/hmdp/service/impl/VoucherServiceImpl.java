@@ -7,8 +7,8 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillStockGate;
+import com.hmdp.utils.SeckillStockSharding;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,7 +30,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockGate seckillStockGate;
+
+    @Resource
+    private SeckillStockSharding seckillStockSharding;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +55,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 添加秒杀券的库存至redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 添加秒杀券的库存至redis，分片数大于1时库存拆分到多个分片，分散热点key
+        Integer shardCount = voucher.getShardCount();
+        seckillStockSharding.initStock(voucher.getId(), voucher.getStock(), shardCount == null ? 1 : shardCount);
+        // 通知各节点清除本地售罄标记
+        seckillStockGate.publishStockChanged(voucher.getId());
     }
 }
@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 紧凑二进制编解码，按字段声明顺序写入字段值，不写字段名
+ * 格式：魔数(1) | 版本(1) | 逻辑过期时间戳(8) | 字段签名(4) | 字段数据，逻辑过期时间在固定偏移处，不需要解析数据即可判断是否过期
+ * 支持的字段类型：Long、Integer、Double、Boolean、String、LocalDateTime，不是该格式的数据按JSON解码，便于切换编码方式
+ * @author: Mr.Ye
+ * @create: 2026-10-18 19:50
+ **/
+@Slf4j
+public class BinaryCacheCodec implements CacheCodec {
+
+	public static final byte MAGIC = (byte) 0xB1;
+
+	public static final byte VERSION = 1;
+
+	public static final int EXPIRE_OFFSET = 2;
+
+	public static final int SIGNATURE_OFFSET = 10;
+
+	public static final int HEADER_LENGTH = 14;
+
+	private static final byte NULL_FLAG = 0;
+
+	private static final byte PRESENT_FLAG = 1;
+
+	private final JsonCacheCodec jsonCacheCodec = new JsonCacheCodec();
+
+	/**
+	 * 类 -> 字段结构
+	 */
+	private final Map<Class<?>, Schema> schemaMap = new ConcurrentHashMap<>();
+
+	@Override
+	public byte[] encode(Object value, long expireAt) {
+		Schema schema = schemaOf(value.getClass());
+		ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.put(MAGIC).put(VERSION).putLong(expireAt).putInt(schema.signature);
+		out.write(header.array(), 0, HEADER_LENGTH);
+		try {
+			for (Field field : schema.fields) {
+				writeValue(out, field.get(value));
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public <R> R decode(byte[] bytes, Class<R> type, boolean logicExpire) {
+		if (!isBinary(bytes)) {
+			return jsonCacheCodec.decode(bytes, type, logicExpire);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		Schema schema = schemaOf(type);
+		if (buffer.getInt(SIGNATURE_OFFSET) != schema.signature) {
+			// 类的字段发生了变化，旧数据无法解码，按未命中处理
+			log.warn("缓存数据字段签名不匹配，忽略该数据！类型：{}", type.getName());
+			return null;
+		}
+		buffer.position(HEADER_LENGTH);
+		try {
+			R r = type.getDeclaredConstructor().newInstance();
+			for (Field field : schema.fields) {
+				field.set(r, readValue(buffer, field.getType()));
+			}
+			return r;
+		} catch (BufferUnderflowException e) {
+			// 数据被截断，无法解码，按未命中处理
+			log.warn("缓存数据不完整，忽略该数据！类型：{}", type.getName());
+			return null;
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public long readExpireAt(byte[] bytes) {
+		if (!isBinary(bytes)) {
+			return jsonCacheCodec.readExpireAt(bytes);
+		}
+		return ByteBuffer.wrap(bytes).getLong(EXPIRE_OFFSET);
+	}
+
+	private boolean isBinary(byte[] bytes) {
+		return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == VERSION;
+	}
+
+	private void writeValue(ByteArrayOutputStream out, Object value) {
+		if (value == null) {
+			out.write(NULL_FLAG);
+			return;
+		}
+		out.write(PRESENT_FLAG);
+		if (value instanceof Long) {
+			writeVarLong(out, (Long) value);
+		} else if (value instanceof Integer) {
+			writeVarLong(out, (Integer) value);
+		} else if (value instanceof Double) {
+			long bits = Double.doubleToLongBits((Double) value);
+			for (int i = 56; i >= 0; i -= 8) {
+				out.write((int) (bits >>> i));
+			}
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? 1 : 0);
+		} else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			writeVarLong(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		} else if (value instanceof LocalDateTime) {
+			writeVarLong(out, ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+		} else {
+			throw new IllegalArgumentException("不支持的字段类型：" + value.getClass().getName());
+		}
+	}
+
+	private Object readValue(ByteBuffer buffer, Class<?> type) {
+		if (buffer.get() == NULL_FLAG) {
+			return null;
+		}
+		if (type == Long.class || type == long.class) {
+			return readVarLong(buffer);
+		} else if (type == Integer.class || type == int.class) {
+			return (int) readVarLong(buffer);
+		} else if (type == Double.class || type == double.class) {
+			return buffer.getDouble();
+		} else if (type == Boolean.class || type == boolean.class) {
+			return buffer.get() == 1;
+		} else if (type == String.class) {
+			int length = (int) readVarLong(buffer);
+			if (length < 0 || length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return value;
+		} else if (type == LocalDateTime.class) {
+			return JsonCacheCodec.toLocalDateTime(readVarLong(buffer));
+		}
+		throw new IllegalArgumentException("不支持的字段类型：" + type.getName());
+	}
+
+	/**
+	 * ZigZag + 变长编码，小数字只占1~2个字节
+	 */
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		long zigZag = (value << 1) ^ (value >> 63);
+		while ((zigZag & ~0x7FL) != 0) {
+			out.write((int) ((zigZag & 0x7F) | 0x80));
+			zigZag >>>= 7;
+		}
+		out.write((int) zigZag);
+	}
+
+	private static long readVarLong(ByteBuffer buffer) {
+		long zigZag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			zigZag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+
+	private Schema schemaOf(Class<?> type) {
+		return schemaMap.computeIfAbsent(type, Schema::new);
+	}
+
+	/**
+	 * 类的字段结构：非静态、非transient字段，父类字段在前；签名由字段名和类型计算
+	 */
+	private static class Schema {
+		private final List<Field> fields = new ArrayList<>();
+		private final int signature;
+
+		private Schema(Class<?> type) {
+			List<Class<?>> hierarchy = new ArrayList<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				hierarchy.add(0, c);
+			}
+			StringBuilder signatureBuilder = new StringBuilder();
+			for (Class<?> c : hierarchy) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+						continue;
+					}
+					field.setAccessible(true);
+					fields.add(field);
+					signatureBuilder.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+				}
+			}
+			this.signature = signatureBuilder.toString().hashCode();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 热门笔记排行，按热度保存在ZSet中，分页查询只需要一次ZREVRANGE，与页码无关
+ * 点赞和取消点赞时由点赞脚本增减热度，发布笔记时加入排行；不衰减时热度即点赞数，
+ * 衰减时每次点赞的热度为 2^((点赞时间 - 衰减起点) / 半衰期)，定时任务把衰减起点前移并按比例缩小所有热度，避免分数溢出
+ * @author: Mr.Ye
+ * @create: 2026-10-19 02:10
+ **/
+@Slf4j
+@Component
+public class BlogHotRanking {
+
+	private static final DefaultRedisScript<Long> HOT_SCRIPT;
+
+	private static final DefaultRedisScript<Long> REBUILD_SCRIPT;
+
+	private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+	static {
+		HOT_SCRIPT = new DefaultRedisScript<>();
+		HOT_SCRIPT.setLocation(new ClassPathResource("hotBlog.lua"));
+		HOT_SCRIPT.setResultType(Long.class);
+		REBUILD_SCRIPT = new DefaultRedisScript<>();
+		REBUILD_SCRIPT.setLocation(new ClassPathResource("hotBlogRebuild.lua"));
+		REBUILD_SCRIPT.setResultType(Long.class);
+		UNLOCK_SCRIPT = new DefaultRedisScript<>();
+		UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+		UNLOCK_SCRIPT.setResultType(Long.class);
+	}
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Resource
+	private BlogMapper blogMapper;
+
+	/**
+	 * 热度半衰期（小时），小于等于0时不衰减
+	 */
+	@Value("${hmdp.blog.hot.half-life:0}")
+	private long halfLifeHours;
+
+	/**
+	 * 排行最多保留的笔记数，超过时删除热度最低的笔记
+	 */
+	@Value("${hmdp.blog.hot.max-size:10000}")
+	private long maxSize;
+
+	/**
+	 * 重建排行时每页查询的笔记数
+	 */
+	@Value("${hmdp.blog.hot.page-size:1000}")
+	private int pageSize;
+
+	/**
+	 * 热度半衰期（毫秒），小于等于0时不衰减
+	 *
+	 * @return 半衰期
+	 */
+	public long getHalfLifeMillis() {
+		return TimeUnit.HOURS.toMillis(halfLifeHours);
+	}
+
+	/**
+	 * 发布笔记时加入排行
+	 *
+	 * @param blogId 笔记ID
+	 * @param time   发布时间（毫秒）
+	 */
+	public void add(Long blogId, long time) {
+		stringRedisTemplate.execute(
+				HOT_SCRIPT,
+				Arrays.asList(RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_EPOCH_KEY),
+				blogId.toString(),
+				String.valueOf(time),
+				String.valueOf(getHalfLifeMillis())
+		);
+	}
+
+	/**
+	 * 按热度从高到低分页查询笔记ID
+	 *
+	 * @param current 页码
+	 * @param size    每页条数
+	 * @return 笔记ID，排行不存在或超出范围时为空
+	 */
+	public List<Long> page(int current, int size) {
+		long start = (long) (current - 1) * size;
+		Set<String> idSet = stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.BLOG_HOT_KEY, start, start + size - 1);
+		if (idSet == null || idSet.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+	}
+
+	/**
+	 * 排行是否已经构建
+	 *
+	 * @return 是否存在
+	 */
+	public boolean exists() {
+		return BooleanUtil.isTrue(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY));
+	}
+
+	/**
+	 * 维护排行，多个节点同时执行时只有一个节点执行：排行不存在或衰减方式改变时从数据库重建，
+	 * 衰减时把衰减起点前移到当前时间，所有热度乘以相同的系数，排名不变；最后裁剪到最大长度
+	 */
+	@Scheduled(fixedDelayString = "${hmdp.blog.hot.maintain-interval:3600000}")
+	public void maintain() {
+		String lockKey = RedisConstants.LOCK_BLOG_HOT_KEY;
+		String lockValue = UUID.randomUUID().toString(true);
+		if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, lockValue,
+				RedisConstants.LOCK_BLOG_HOT_TTL, TimeUnit.SECONDS))) {
+			return;
+		}
+		try {
+			long halfLifeMillis = getHalfLifeMillis();
+			String epoch = stringRedisTemplate.opsForValue().get(RedisConstants.BLOG_HOT_EPOCH_KEY);
+			// 1. 排行不存在，或者开启、关闭了衰减，从数据库重建
+			if (!exists() || (halfLifeMillis > 0) != (epoch != null)) {
+				rebuild(halfLifeMillis);
+				return;
+			}
+			// 2. 衰减时前移衰减起点，与点赞脚本互斥执行
+			if (halfLifeMillis > 0) {
+				long now = System.currentTimeMillis();
+				double factor = Math.pow(2, (double) (Long.parseLong(epoch) - now) / halfLifeMillis);
+				stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+					@Override
+					@SuppressWarnings({"unchecked", "rawtypes"})
+					public List<Object> execute(RedisOperations operations) {
+						operations.multi();
+						operations.opsForZSet().unionAndStore(RedisConstants.BLOG_HOT_KEY, Collections.emptyList(),
+								RedisConstants.BLOG_HOT_KEY, RedisZSetCommands.Aggregate.SUM, RedisZSetCommands.Weights.of(factor));
+						operations.opsForValue().set(RedisConstants.BLOG_HOT_EPOCH_KEY, String.valueOf(now));
+						return operations.exec();
+					}
+				});
+			}
+			// 3. 裁剪到最大长度
+			stringRedisTemplate.opsForZSet().removeRange(RedisConstants.BLOG_HOT_KEY, 0, -maxSize - 1);
+		} catch (Exception e) {
+			log.error("维护热门笔记排行失败！", e);
+		} finally {
+			unlock(lockKey, lockValue);
+		}
+	}
+
+	/**
+	 * 按ID分页查询数据库，构建到临时的ZSet中，每页通过一次管道写入并裁剪，完成后替换排行
+	 * 衰减时以当前时间为衰减起点，笔记的点赞按发布时间计算热度
+	 * 重建期间持有点赞数写回的锁，数据库中的点赞数不变，还没有写回的点赞（包括重建期间的点赞）都在增量中，替换时一起合并
+	 *
+	 * @param halfLifeMillis 半衰期
+	 */
+	private void rebuild(long halfLifeMillis) throws InterruptedException {
+		String flushLockKey = RedisConstants.LOCK_BLOG_LIKED_FLUSH_KEY;
+		String flushLockValue = UUID.randomUUID().toString(true);
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RedisConstants.LOCK_BLOG_LIKED_FLUSH_TTL);
+		while (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(flushLockKey, flushLockValue,
+				RedisConstants.LOCK_BLOG_HOT_TTL, TimeUnit.SECONDS))) {
+			if (System.currentTimeMillis() > deadline) {
+				log.warn("等待点赞数写回超时，跳过重建热门笔记排行");
+				return;
+			}
+			TimeUnit.MILLISECONDS.sleep(100);
+		}
+		try {
+			long start = System.currentTimeMillis();
+			String buildingKey = RedisConstants.BLOG_HOT_BUILDING_KEY;
+			stringRedisTemplate.delete(buildingKey);
+			long lastId = 0;
+			long count = 0;
+			while (true) {
+				List<Blog> blogList = blogMapper.selectList(new QueryWrapper<Blog>()
+						.select("id", "liked", "create_time")
+						.gt("id", lastId)
+						.orderByAsc("id")
+						.last("limit " + pageSize));
+				if (blogList.isEmpty()) {
+					break;
+				}
+				stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+					StringRedisConnection stringConnection = (StringRedisConnection) connection;
+					for (Blog blog : blogList) {
+						long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+						double score = liked;
+						if (halfLifeMillis > 0 && blog.getCreateTime() != null) {
+							long createTime = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+							score = (liked + 1) * Math.pow(2, (double) (createTime - start) / halfLifeMillis);
+						}
+						stringConnection.zAdd(buildingKey, score, blog.getId().toString());
+					}
+					stringConnection.zRemRange(buildingKey, 0, -maxSize - 1);
+					return null;
+				});
+				lastId = blogList.get(blogList.size() - 1).getId();
+				count += blogList.size();
+			}
+			// 合并还没有写回的点赞，替换排行，同时更新衰减起点
+			List<String> args = new ArrayList<>();
+			args.add(String.valueOf(start));
+			args.add(String.valueOf(System.currentTimeMillis()));
+			args.add(String.valueOf(halfLifeMillis));
+			args.add(String.valueOf(maxSize));
+			args.addAll(queryFlushedIds());
+			stringRedisTemplate.execute(
+					REBUILD_SCRIPT,
+					Arrays.asList(buildingKey, RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_EPOCH_KEY,
+							RedisConstants.BLOG_LIKED_DELTA_KEY, RedisConstants.BLOG_LIKED_FLUSHING_KEY),
+					args.toArray()
+			);
+			log.debug("重建热门笔记排行，笔记数：{}，耗时：{}ms", count, System.currentTimeMillis() - start);
+		} finally {
+			unlock(flushLockKey, flushLockValue);
+		}
+	}
+
+	/**
+	 * 释放锁，只删除自己持有的锁，执行超过锁的有效期时不会删除其他节点的锁
+	 */
+	private void unlock(String lockKey, String lockValue) {
+		stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey), lockValue);
+	}
+
+	/**
+	 * 查询待写回增量中已经写入数据库的笔记：上次写回在UPDATE之后、删除字段之前中断时，这些行已经带有当前的写回批次
+	 *
+	 * @return 笔记ID
+	 */
+	private List<String> queryFlushedIds() {
+		String flushId = stringRedisTemplate.opsForValue().get(RedisConstants.BLOG_LIKED_FLUSH_ID_KEY);
+		if (flushId == null || !BooleanUtil.isTrue(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKED_FLUSHING_KEY))) {
+			return Collections.emptyList();
+		}
+		return blogMapper.selectObjs(new QueryWrapper<Blog>().select("id").eq("liked_flush", Long.parseLong(flushId)))
+				.stream().map(String::valueOf).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,427 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 布隆过滤器，拦截不存在的ID，解决缓存穿透
+ * 本地位数组从数据库全量构建，构建完成后只查询本地位数组，不访问Redis；新增的数据通过发布订阅同步到各节点的本地位数组，
+ * Redis位图在所有节点之间共享，只在本节点首次构建完成前使用
+ * @author: Mr.Ye
+ * @create: 2026-10-18 20:30
+ **/
+@Slf4j
+@Component
+public class CacheBloomFilter implements MessageListener {
+
+	private final StringRedisTemplate stringRedisTemplate;
+
+	private final Environment environment;
+
+	/**
+	 * 缓存key前缀 -> 布隆过滤器
+	 */
+	private final Map<String, Filter> filterMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Redis位图最大位数（512MB）
+	 */
+	private static final long MAX_BITS = 1L << 32;
+
+	public CacheBloomFilter(StringRedisTemplate stringRedisTemplate, Environment environment) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.environment = environment;
+	}
+
+	/**
+	 * 为某个缓存key前缀注册布隆过滤器，容量和误判率读取配置 hmdp.bloom.{name}.expected-insertions / fpp
+	 *
+	 * @param name         过滤器名称，同时作为Redis位图key的后缀
+	 * @param keyPrefix    缓存key前缀
+	 * @param idPageLoader 按ID分页查询数据库：传入上一页最后一个ID和每页数量，返回按ID升序的下一页ID
+	 */
+	public void register(String name, String keyPrefix, BiFunction<Long, Integer, List<Long>> idPageLoader) {
+		long expectedInsertions = environment.getProperty("hmdp.bloom." + name + ".expected-insertions", Long.class, 1000000L);
+		double fpp = environment.getProperty("hmdp.bloom." + name + ".fpp", Double.class, 0.01);
+		filterMap.put(keyPrefix, new Filter(name, expectedInsertions, fpp, idPageLoader));
+	}
+
+	/**
+	 * 判断数据是否可能存在，未注册或尚未构建完成的过滤器一律返回true
+	 *
+	 * @param keyPrefix 缓存key前缀
+	 * @param id        数据id
+	 * @return false表示一定不存在
+	 */
+	public boolean mightContain(String keyPrefix, Object id) {
+		return mightContain(keyPrefix, Collections.singletonList(id))[0];
+	}
+
+	/**
+	 * 批量判断数据是否可能存在：构建完成后只查询本地位数组；首次构建完成前通过一次管道查询Redis位图，位图不存在时一律返回true
+	 *
+	 * @param keyPrefix 缓存key前缀
+	 * @param ids       数据id列表
+	 * @return 与ids顺序一致的判断结果，false表示一定不存在
+	 */
+	public boolean[] mightContain(String keyPrefix, List<?> ids) {
+		boolean[] result = new boolean[ids.size()];
+		Filter filter = filterMap.get(keyPrefix);
+		if (filter == null) {
+			Arrays.fill(result, true);
+			return result;
+		}
+		filter.queryCount.addAndGet(ids.size());
+		// 1. 构建完成后查询本地位数组
+		Bits bits = filter.bits;
+		if (bits != null) {
+			for (int i = 0; i < ids.size(); i++) {
+				result[i] = bits.contains(filter.offsets(ids.get(i)));
+				if (!result[i]) {
+					filter.rejectCount.incrementAndGet();
+				}
+			}
+			return result;
+		}
+		// 2. 首次构建完成前查询Redis位图，第一个结果为位图是否存在
+		List<long[]> offsetsList = new ArrayList<>(ids.size());
+		for (Object id : ids) {
+			offsetsList.add(filter.offsets(id));
+		}
+		byte[] rawKey = filter.redisKey.getBytes(StandardCharsets.UTF_8);
+		List<Object> bitList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			connection.keyCommands().exists(rawKey);
+			for (long[] offsets : offsetsList) {
+				for (long offset : offsets) {
+					connection.stringCommands().getBit(rawKey, offset);
+				}
+			}
+			return null;
+		});
+		boolean redisExists = Boolean.TRUE.equals(bitList.get(0));
+		int cursor = 1;
+		for (int i = 0; i < ids.size(); i++) {
+			boolean present = true;
+			for (int k = 0; k < offsetsList.get(i).length; k++) {
+				present &= Boolean.TRUE.equals(bitList.get(cursor++));
+			}
+			// Redis位图不存在时无法确认，按存在处理
+			result[i] = !redisExists || present;
+			if (!result[i]) {
+				filter.rejectCount.incrementAndGet();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 新增数据后加入布隆过滤器：写入本地位数组和Redis位图，再通知其他节点写入本地位数组
+	 *
+	 * @param keyPrefix 缓存key前缀
+	 * @param id        数据id
+	 */
+	public void add(String keyPrefix, Long id) {
+		Filter filter = filterMap.get(keyPrefix);
+		if (filter == null) {
+			return;
+		}
+		addLocal(filter, id);
+		setRedisBits(filter.redisKey, Collections.singletonList(filter.offsets(id)));
+		stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, filter.name + ":" + id);
+	}
+
+	/**
+	 * 写入本地位数组，正在重建时记录下来，重建完成后补充到新的位数组
+	 */
+	private void addLocal(Filter filter, Long id) {
+		Set<Long> rebuildingIds = filter.rebuildingIds;
+		if (rebuildingIds != null) {
+			rebuildingIds.add(id);
+		}
+		Bits bits = filter.bits;
+		if (bits != null) {
+			bits.set(filter.offsets(id));
+		}
+	}
+
+	/**
+	 * 收到其他节点新增数据的消息（过滤器名称:id），写入本地位数组
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+		int index = body.lastIndexOf(':');
+		try {
+			String name = body.substring(0, index);
+			Long id = Long.valueOf(body.substring(index + 1));
+			for (Filter filter : filterMap.values()) {
+				if (filter.name.equals(name)) {
+					addLocal(filter, id);
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("布隆过滤器新增消息格式错误：{}", body);
+		}
+	}
+
+	/**
+	 * 定时从数据库全量重建所有布隆过滤器，首次执行即为启动时构建
+	 */
+	@Scheduled(initialDelayString = "${hmdp.bloom.initial-delay:0}", fixedDelayString = "${hmdp.bloom.rebuild-interval:3600000}")
+	public void rebuildAll() {
+		for (Filter filter : filterMap.values()) {
+			try {
+				rebuild(filter);
+			} catch (Exception e) {
+				log.error("重建布隆过滤器失败！name：{}", filter.name, e);
+			}
+		}
+	}
+
+	/**
+	 * 重建指定的布隆过滤器
+	 *
+	 * @param name 过滤器名称
+	 * @return 是否存在该过滤器
+	 */
+	public boolean rebuild(String name) {
+		for (Filter filter : filterMap.values()) {
+			if (filter.name.equals(name)) {
+				rebuild(filter);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void rebuild(Filter filter) {
+		synchronized (filter) {
+			long start = System.currentTimeMillis();
+			filter.rebuildingIds = ConcurrentHashMap.newKeySet();
+			try {
+				// 1. 按ID分页查询数据库，构建新的位数组
+				Bits newBits = new Bits(filter.numBits);
+				int pageSize = environment.getProperty("hmdp.bloom.page-size", Integer.class, 1000);
+				long count = 0;
+				long lastId = 0;
+				while (true) {
+					List<Long> idList = filter.idPageLoader.apply(lastId, pageSize);
+					for (Long id : idList) {
+						newBits.set(filter.offsets(id));
+					}
+					count += idList.size();
+					if (idList.size() < pageSize) {
+						break;
+					}
+					lastId = idList.get(idList.size() - 1);
+				}
+				// 2. 上传到Redis：写入临时key后RENAME，多个节点同时重建时只有一个节点上传
+				String lockKey = RedisConstants.BLOOM_LOCK_KEY + filter.name;
+				Boolean isLock = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", RedisConstants.BLOOM_LOCK_TTL, TimeUnit.MINUTES);
+				if (Boolean.TRUE.equals(isLock)) {
+					try {
+						byte[] rawKey = filter.redisKey.getBytes(StandardCharsets.UTF_8);
+						byte[] tempKey = (filter.redisKey + ":rebuild").getBytes(StandardCharsets.UTF_8);
+						byte[] bitmap = newBits.toRedisBitmap();
+						stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+							connection.stringCommands().set(tempKey, bitmap);
+							connection.keyCommands().rename(tempKey, rawKey);
+							return null;
+						});
+					} finally {
+						stringRedisTemplate.delete(lockKey);
+					}
+				}
+				// 3. 补充重建期间新增的数据，替换本地位数组后再补充一次，替换前读到旧位数组的新增数据一定已经记录下来
+				Set<Long> rebuildingIds = filter.rebuildingIds;
+				rebuildingIds.forEach(id -> newBits.set(filter.offsets(id)));
+				filter.bits = newBits;
+				List<long[]> offsetsList = new ArrayList<>();
+				for (Long id : rebuildingIds) {
+					long[] offsets = filter.offsets(id);
+					newBits.set(offsets);
+					offsetsList.add(offsets);
+				}
+				setRedisBits(filter.redisKey, offsetsList);
+				filter.insertions = count + rebuildingIds.size();
+				filter.lastRebuildTime = System.currentTimeMillis();
+				filter.lastRebuildCost = filter.lastRebuildTime - start;
+				log.info("重建布隆过滤器完成！name：{}，数据量：{}，耗时：{}ms", filter.name, filter.insertions, filter.lastRebuildCost);
+			} finally {
+				filter.rebuildingIds = null;
+			}
+		}
+	}
+
+	/**
+	 * 通过管道批量设置Redis位图
+	 */
+	private void setRedisBits(String redisKey, List<long[]> offsetsList) {
+		if (offsetsList.isEmpty()) {
+			return;
+		}
+		byte[] rawKey = redisKey.getBytes(StandardCharsets.UTF_8);
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			RedisStringCommands stringCommands = connection.stringCommands();
+			for (long[] offsets : offsetsList) {
+				for (long offset : offsets) {
+					stringCommands.setBit(rawKey, offset, true);
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 布隆过滤器的配置和运行情况：位数、哈希函数个数、当前估算的误判率、拦截数等
+	 *
+	 * @return 过滤器名称 -> 统计信息
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		for (Filter filter : filterMap.values()) {
+			Map<String, Object> filterStats = new LinkedHashMap<>();
+			Bits bits = filter.bits;
+			filterStats.put("ready", bits != null);
+			filterStats.put("expectedInsertions", filter.expectedInsertions);
+			filterStats.put("fpp", filter.fpp);
+			filterStats.put("numBits", filter.numBits);
+			filterStats.put("numHashFunctions", filter.numHashFunctions);
+			filterStats.put("insertions", filter.insertions);
+			if (bits != null) {
+				long bitCount = bits.bitCount();
+				filterStats.put("bitCount", bitCount);
+				filterStats.put("estimatedFpp", Math.pow((double) bitCount / filter.numBits, filter.numHashFunctions));
+			}
+			filterStats.put("queryCount", filter.queryCount.get());
+			filterStats.put("rejectCount", filter.rejectCount.get());
+			filterStats.put("lastRebuildTime", filter.lastRebuildTime);
+			filterStats.put("lastRebuildCost", filter.lastRebuildCost);
+			statsMap.put(filter.name, filterStats);
+		}
+		return statsMap;
+	}
+
+	/**
+	 * 单个布隆过滤器
+	 */
+	private static class Filter {
+		private final String name;
+		private final String redisKey;
+		private final long expectedInsertions;
+		private final double fpp;
+		private final long numBits;
+		private final int numHashFunctions;
+		private final BiFunction<Long, Integer, List<Long>> idPageLoader;
+		private final AtomicLong queryCount = new AtomicLong();
+		private final AtomicLong rejectCount = new AtomicLong();
+		/**
+		 * 本地位数组，首次构建完成前为null
+		 */
+		private volatile Bits bits;
+		/**
+		 * 重建期间新增的ID，不在重建时为null
+		 */
+		private volatile Set<Long> rebuildingIds;
+		private volatile long insertions;
+		private volatile long lastRebuildTime;
+		private volatile long lastRebuildCost;
+
+		private Filter(String name, long expectedInsertions, double fpp, BiFunction<Long, Integer, List<Long>> idPageLoader) {
+			this.name = name;
+			this.redisKey = RedisConstants.BLOOM_KEY + name;
+			this.expectedInsertions = expectedInsertions;
+			this.fpp = fpp;
+			this.idPageLoader = idPageLoader;
+			// m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+			long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+			this.numBits = Math.min(Math.max(bits, 64), MAX_BITS);
+			this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+		}
+
+		/**
+		 * 双重哈希计算k个位置：offset = h1 + i * h2
+		 */
+		private long[] offsets(Object id) {
+			long[] hash = MurmurHash.hash128(id.toString().getBytes(StandardCharsets.UTF_8));
+			long[] offsets = new long[numHashFunctions];
+			long combined = hash[0];
+			for (int i = 0; i < numHashFunctions; i++) {
+				offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+				combined += hash[1];
+			}
+			return offsets;
+		}
+	}
+
+	/**
+	 * 位数组，位的顺序与Redis位图一致，方便整体上传
+	 */
+	private static class Bits {
+		private final long numBits;
+		private final AtomicLongArray data;
+
+		private Bits(long numBits) {
+			this.numBits = numBits;
+			this.data = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+		}
+
+		private boolean contains(long[] offsets) {
+			for (long offset : offsets) {
+				if ((data.get((int) (offset >>> 6)) & (1L << (offset & 63))) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void set(long[] offsets) {
+			for (long offset : offsets) {
+				long mask = 1L << (offset & 63);
+				data.getAndAccumulate((int) (offset >>> 6), mask, (a, b) -> a | b);
+			}
+		}
+
+		private long bitCount() {
+			long count = 0;
+			for (int i = 0; i < data.length(); i++) {
+				count += Long.bitCount(data.get(i));
+			}
+			return count;
+		}
+
+		/**
+		 * 转换为Redis位图：Redis中第offset位是第offset/8个字节的从高到低第offset%8位
+		 */
+		private byte[] toRedisBitmap() {
+			byte[] bitmap = new byte[(int) ((numBits + 7) >>> 3)];
+			for (int i = 0; i < data.length(); i++) {
+				long word = data.get(i);
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					long offset = ((long) i << 6) + bit;
+					bitmap[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+					word &= word - 1;
+				}
+			}
+			return bitmap;
+		}
+	}
+}
@@ -1,36 +1,157 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.dto.RedisDataDTO;
-import lombok.AllArgsConstructor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @program: hm-dianping-backend
- * @description: Redis缓存工具类
+ * @description: Redis缓存工具类，带有本地一级缓存（Caffeine），Redis为二级缓存
  * @author: Mr.Ye
  * @create: 2023-02-12 13:39
  **/
 @Slf4j
 @Component
-@AllArgsConstructor
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
 	private final StringRedisTemplate stringRedisTemplate;
 
-	public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+	/**
+	 * 本地缓存的空值标记，对应Redis中缓存的空字符串
+	 */
+	private static final Object NULL_VALUE = new Object();
+
+	/**
+	 * 本地缓存：key -> 已反序列化的对象，按数据大小加权淘汰
+	 */
+	private final Cache<String, LocalEntry> localCache;
+
+	/**
+	 * 开启本地缓存的key前缀 -> 本地缓存过期时间（纳秒），未注册的前缀不走本地缓存
+	 */
+	private final Map<String, Long> localTtlMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 正在加载的key -> 加载结果，同一节点并发未命中同一个key时共享一次加载
+	 */
+	private final Map<String, CompletableFuture<Object>> inFlightMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 等待同一节点其他线程加载结果的最长时间
+	 */
+	private static final long SINGLE_FLIGHT_WAIT_MILLIS = 3000L;
+
+	/**
+	 * 等待其他节点重建缓存的最长时间
+	 */
+	private static final long LOCK_WAIT_MILLIS = 1000L;
+
+	/**
+	 * 获取锁失败后轮询缓存的间隔
+	 */
+	private static final long LOCK_RETRY_INTERVAL_MILLIS = 10L;
+
+	/**
+	 * 开启提前刷新的key前缀 -> 提前刷新系数beta
+	 */
+	private final Map<String, Double> earlyRefreshBetaMap = new ConcurrentHashMap<>();
+
+	/**
+	 * key前缀 -> 重建耗时的指数加权平均（毫秒）
+	 */
+	private final Map<String, Double> rebuildCostMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 还没有测量到重建耗时时使用的默认值（毫秒）
+	 */
+	private static final double DEFAULT_REBUILD_COST_MILLIS = 100.0;
+
+	/**
+	 * 收到的失效通知数
+	 */
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	/**
+	 * Redis中缓存数据的编解码方式
+	 */
+	private final CacheCodec cacheCodec;
+
+	/**
+	 * 布隆过滤器，拦截一定不存在的数据
+	 */
+	private final CacheBloomFilter cacheBloomFilter;
+
+	/**
+	 * 逻辑过期缓存的重建线程池
+	 */
+	private final CacheRebuildExecutor cacheRebuildExecutor;
+
+	public CacheClient(StringRedisTemplate stringRedisTemplate, CacheBloomFilter cacheBloomFilter,
+					   CacheRebuildExecutor cacheRebuildExecutor,
+					   @Value("${hmdp.cache.local.max-weight:16777216}") long localMaxWeight,
+					   @Value("${hmdp.cache.codec:json}") String codec) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.cacheBloomFilter = cacheBloomFilter;
+		this.cacheRebuildExecutor = cacheRebuildExecutor;
+		this.cacheCodec = "binary".equalsIgnoreCase(codec) ? new BinaryCacheCodec() : new JsonCacheCodec();
+		this.localCache = Caffeine.newBuilder()
+				.maximumWeight(localMaxWeight)
+				.weigher((String key, LocalEntry entry) -> entry.weight)
+				.expireAfter(new Expiry<String, LocalEntry>() {
+					@Override
+					public long expireAfterCreate(String key, LocalEntry entry, long currentTime) {
+						return entry.ttlNanos;
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, LocalEntry entry, long currentTime, long currentDuration) {
+						return entry.ttlNanos;
+					}
+
+					@Override
+					public long expireAfterRead(String key, LocalEntry entry, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * 为某个key前缀开启本地缓存
+	 *
+	 * @param keyPrefix  key前缀
+	 * @param expireTime 本地缓存过期时间
+	 * @param unit       时间单位
+	 */
+	public void enableLocalCache(String keyPrefix, Long expireTime, TimeUnit unit) {
+		localTtlMap.put(keyPrefix, unit.toNanos(expireTime));
+	}
 
 	/**
 	 * 普通存储：数据存入Redis，设置过期时间
@@ -42,22 +163,104 @@ public class CacheClient {
 	 */
 	public void set(String key, String value, Long expireTime, TimeUnit unit) {
 		stringRedisTemplate.opsForValue().set(key, value, expireTime, unit);
+		localCache.invalidate(key);
 	}
 
 	/**
 	 * 缓存击穿：数据存入Redis，设置逻辑过期时间
 	 *
 	 * @param key key
-	 * @param value 数据对象
+	 * @param value 数据对象，为null时写入空值
 	 * @param expireTime 过期时间
 	 * @param unit 时间单位
 	 * @param <T> 数据类型
 	 */
 	public <T> void setWithLogicExpire(String key, T value, Long expireTime, TimeUnit unit) {
+		// 数据库中不存在，写入空值，防止缓存穿透
+		if (value == null) {
+			setBytes(key, new byte[0], Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES));
+			localCache.invalidate(key);
+			return;
+		}
 		// 设置逻辑过期时间
-		RedisData redisData = new RedisData(value, LocalDateTime.now().plusSeconds(unit.toSeconds(expireTime)));
+		long expireAt = System.currentTimeMillis() + unit.toMillis(expireTime);
+		byte[] bytes = cacheCodec.encode(value, expireAt);
 		// 存入Redis
-		stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+		setBytes(key, bytes, null);
+		// 存入本地缓存
+		putLocal(findLocalTtl(key), key, new RedisData<>(value, JsonCacheCodec.toLocalDateTime(expireAt)), bytes.length);
+	}
+
+	/**
+	 * 批量写入带有逻辑过期时间的数据（缓存预热），通过管道一次写入
+	 * 逻辑过期时间增加随机偏移，避免同一批数据同时过期、同时重建；不写入本地缓存，避免预热数据挤占热点数据
+	 *
+	 * @param dataKeyPrefix 数据缓存key前缀
+	 * @param dataMap       id -> 数据
+	 * @param expireTime    逻辑过期时间
+	 * @param jitter        逻辑过期时间的最大随机偏移
+	 * @param unit          时间单位
+	 * @param broadcast     是否通知所有节点删除本地缓存，数据有更新时使用
+	 * @param <R>           数据类型
+	 * @param <T>           id类型
+	 */
+	public <R, T> void setBatchWithLogicExpire(String dataKeyPrefix, Map<T, R> dataMap, Long expireTime, Long jitter,
+											   TimeUnit unit, boolean broadcast) {
+		if (dataMap.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long expireMillis = unit.toMillis(expireTime);
+		long jitterMillis = unit.toMillis(jitter);
+		byte[] channel = RedisConstants.CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			for (Map.Entry<T, R> entry : dataMap.entrySet()) {
+				byte[] rawKey = (dataKeyPrefix + entry.getKey()).getBytes(StandardCharsets.UTF_8);
+				long expireAt = now + expireMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+				connection.stringCommands().set(rawKey, cacheCodec.encode(entry.getValue(), expireAt));
+				if (broadcast) {
+					connection.publish(channel, rawKey);
+				}
+			}
+			return null;
+		});
+		if (broadcast) {
+			for (T id : dataMap.keySet()) {
+				localCache.invalidate(dataKeyPrefix + id);
+			}
+		}
+	}
+
+	/**
+	 * 删除缓存，并通知所有节点删除本地缓存
+	 *
+	 * @param key key
+	 */
+	public void delete(String key) {
+		stringRedisTemplate.delete(key);
+		localCache.invalidate(key);
+		stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+	}
+
+	/**
+	 * 批量删除缓存，通过管道一次删除并通知所有节点删除本地缓存
+	 *
+	 * @param keys key列表
+	 */
+	public void delete(Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		byte[] channel = RedisConstants.CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			for (String key : keys) {
+				byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+				connection.keyCommands().del(rawKey);
+				connection.publish(channel, rawKey);
+			}
+			return null;
+		});
+		localCache.invalidateAll(keys);
 	}
 
 	/**
@@ -76,52 +279,132 @@ public class CacheClient {
 	 */
 	public <R, T> R queryWithMutex(String dataKeyPrefix, String lockKeyPrefix, T id, Class<R> type, Function<T, R> function,
 									   Long expireTime, TimeUnit unit) {
-		// 1. 查询缓存数据
-		ValueOperations<String, String> stringValueOperations = stringRedisTemplate.opsForValue();
 		String dataKey = dataKeyPrefix + id;
-		String json = stringValueOperations.get(dataKey);
-		// 2. 缓存存在，直接返回
-		if (StrUtil.isNotBlank(json)) {
-			R r = JSONUtil.toBean(json, type);
-			return r;
+		// 0. 查询本地缓存
+		Long localTtl = localTtlMap.get(dataKeyPrefix);
+		LocalEntry localEntry = localTtl == null ? null : localCache.getIfPresent(dataKey);
+		if (localEntry != null) {
+			return localEntry.value == NULL_VALUE ? null : type.cast(localEntry.value);
 		}
-		// 缓存命中但是空数据，说明是防止缓存穿透的数据，直接返回错误信息
-		if (json != null) {
+		// 0.1 布隆过滤器判断数据一定不存在，直接返回，不查询Redis和数据库
+		if (!cacheBloomFilter.mightContain(dataKeyPrefix, id)) {
 			return null;
 		}
-		// 3. 缓存不存在获取锁(解决缓存击穿)
-		R r = null;
-		String lockKey = lockKeyPrefix + id;
-		try {
-			Boolean isLock = this.tryLock(lockKey);
-			if (!isLock) {
-				// 4. 获取锁失败，休眠并重试
-				Thread.sleep(50);
-				return queryWithMutex(dataKeyPrefix, lockKeyPrefix, id , type, function, expireTime, unit);
-			}
-			// 5. 获取锁成功，重新查询缓存（防止高并发场景恰好锁被释放和获取）
-			json = stringValueOperations.get(dataKey);
-			// 6. 缓存存在，说明已经有线程恰好重建好了，直接返回
-			if (StrUtil.isNotBlank(json)) {
-				r = JSONUtil.toBean(json, type);
-				return r;
+		// 1. 查询缓存数据，缓存存在或者是防止缓存穿透的空数据，直接返回
+		Object cached = readCache(dataKey, type, localTtl);
+		if (cached != null) {
+			return cached == NULL_VALUE ? null : type.cast(cached);
+		}
+		// 2. 缓存不存在，同一节点同一个key只有一个线程去加载，其他线程等待它的结果
+		CompletableFuture<Object> flight = new CompletableFuture<>();
+		CompletableFuture<Object> existing = inFlightMap.putIfAbsent(dataKey, flight);
+		if (existing != null) {
+			try {
+				Object value = existing.get(SINGLE_FLIGHT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				return value == NULL_VALUE ? null : type.cast(value);
+			} catch (TimeoutException | ExecutionException e) {
+				// 等待超时或加载失败，兜底直接查询数据库
+				log.warn("等待缓存加载失败，直接查询数据库！key：{}", dataKey, e);
+				return loadFromDb(dataKey, id, function, expireTime, unit, localTtl);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
 			}
-			// 7. 缓存中不存在，查询数据库
-			r = function.apply(id);
-			// 8. 数据库中不存在，返回错误
-			if (r == null) {
-				// 将空值写入Redis，避免缓存穿透
-				stringValueOperations.set(dataKey, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-				return null;
-			}
-			// 9. 数据库中存在，写入缓存，设置超时时间兜底
-			stringValueOperations.set(dataKey, JSONUtil.toJsonStr(r), expireTime, unit);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+		}
+		try {
+			R r = loadWithMutex(dataKey, lockKeyPrefix + id, id, type, function, expireTime, unit, localTtl);
+			flight.complete(r == null ? NULL_VALUE : r);
+			return r;
+		} catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
 		} finally {
-			// 10. 释放锁
-			unlock(lockKey);
+			inFlightMap.remove(dataKey, flight);
+		}
+	}
+
+	/**
+	 * 互斥锁重建缓存：Redis锁只用于节点之间协调，获取锁失败时有限时间内轮询缓存，超时兜底直接查询数据库
+	 */
+	private <R, T> R loadWithMutex(String dataKey, String lockKey, T id, Class<R> type, Function<T, R> function,
+								   Long expireTime, TimeUnit unit, Long localTtl) {
+		long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+		while (true) {
+			// 3. 获取锁(解决缓存击穿)
+			if (tryLock(lockKey)) {
+				try {
+					// 5. 获取锁成功，重新查询缓存（防止高并发场景恰好锁被释放和获取）
+					Object cached = readCache(dataKey, type, localTtl);
+					// 6. 缓存存在，说明已经有线程恰好重建好了，直接返回
+					if (cached != null) {
+						return cached == NULL_VALUE ? null : type.cast(cached);
+					}
+					// 7. 缓存中不存在，查询数据库
+					return loadFromDb(dataKey, id, function, expireTime, unit, localTtl);
+				} finally {
+					// 10. 释放锁
+					unlock(lockKey);
+				}
+			}
+			// 4. 获取锁失败，说明其他节点正在重建，短暂休眠后查询缓存
+			try {
+				Thread.sleep(LOCK_RETRY_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			Object cached = readCache(dataKey, type, localTtl);
+			if (cached != null) {
+				return cached == NULL_VALUE ? null : type.cast(cached);
+			}
+			if (System.currentTimeMillis() > deadline) {
+				// 等待超时，兜底直接查询数据库
+				log.warn("等待其他节点重建缓存超时，直接查询数据库！key：{}", dataKey);
+				return loadFromDb(dataKey, id, function, expireTime, unit, localTtl);
+			}
+		}
+	}
+
+	/**
+	 * 查询Redis缓存
+	 *
+	 * @return 缓存不存在返回null，缓存的是空数据返回NULL_VALUE，否则返回数据
+	 */
+	private <R> Object readCache(String dataKey, Class<R> type, Long localTtl) {
+		byte[] bytes = getBytes(dataKey);
+		if (bytes == null) {
+			return null;
+		}
+		// 缓存命中但是空数据，说明是防止缓存穿透的数据
+		if (bytes.length == 0) {
+			putLocal(localTtl, dataKey, NULL_VALUE, 0);
+			return NULL_VALUE;
+		}
+		R r = cacheCodec.decode(bytes, type, false);
+		if (r == null) {
+			// 无法解码的旧数据按未命中处理
+			return null;
+		}
+		putLocal(localTtl, dataKey, r, bytes.length);
+		return r;
+	}
+
+	/**
+	 * 查询数据库并写入缓存
+	 */
+	private <R, T> R loadFromDb(String dataKey, T id, Function<T, R> function, Long expireTime, TimeUnit unit, Long localTtl) {
+		R r = function.apply(id);
+		// 8. 数据库中不存在，返回错误
+		if (r == null) {
+			// 将空值写入Redis，避免缓存穿透
+			setBytes(dataKey, new byte[0], Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES));
+			putLocal(localTtl, dataKey, NULL_VALUE, 0);
+			return null;
 		}
+		// 9. 数据库中存在，写入缓存，设置超时时间兜底
+		byte[] bytes = cacheCodec.encode(r, CacheCodec.NO_EXPIRE);
+		setBytes(dataKey, bytes, Expiration.from(expireTime, unit));
+		putLocal(localTtl, dataKey, r, bytes.length);
 		return r;
 	}
 
@@ -141,61 +424,397 @@ public class CacheClient {
 	 */
 	public <R, T> R querywithLogicExpiration(String dataKeyPrefix, String lockKeyPrefix, T id, Class<R> type, Function<T, R> function,
 										  Long expireTime, TimeUnit unit) {
-		// 1. 查询缓存数据
-		ValueOperations<String, String> stringValueOperations = stringRedisTemplate.opsForValue();
 		String dataKey = dataKeyPrefix + id;
-		String redisDataDTOJson = stringValueOperations.get(dataKey);
+		String lockKey = lockKeyPrefix + id;
+		// 0. 查询本地缓存，本地缓存的数据未逻辑过期时直接返回
+		Long localTtl = localTtlMap.get(dataKeyPrefix);
+		LocalEntry localEntry = localTtl == null ? null : localCache.getIfPresent(dataKey);
+		if (localEntry != null && localEntry.value instanceof RedisData) {
+			RedisData<?> localData = (RedisData<?>) localEntry.value;
+			if (localData.getExpireTime().isAfter(LocalDateTime.now())) {
+				// 0.1 开启提前刷新时，按概率提前重建，仍然返回本地数据
+				if (earlyRefreshBetaMap.containsKey(dataKeyPrefix)) {
+					long localExpireAt = localData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+					if (shouldRefreshEarly(dataKeyPrefix, localExpireAt)) {
+						rebuildAsync(dataKeyPrefix, dataKey, lockKey, id, type, function, expireTime, unit, localExpireAt, localTtl);
+					}
+				}
+				return type.cast(localData.getData());
+			}
+		}
+		// 0.2 布隆过滤器判断数据一定不存在，直接返回
+		if (localEntry == null && !cacheBloomFilter.mightContain(dataKeyPrefix, id)) {
+			return null;
+		}
+		// 1. 查询缓存数据
+		byte[] bytes = getBytes(dataKey);
 		// 2. 缓存不存在，直接返回null
-		if (StrUtil.isBlank(redisDataDTOJson)) {
+		if (bytes == null || bytes.length == 0) {
 			return null;
 		}
 		// 3. 缓存存在
-		// 3.1 获取过期时间
-		RedisDataDTO redisDataDTO = JSONUtil.toBean(redisDataDTOJson, RedisDataDTO.class);
-		R r = JSONUtil.toBean((JSONObject) redisDataDTO.getData(),type);
-		LocalDateTime originExpireTime = redisDataDTO.getExpireTime();
+		// 3.1 获取过期时间，二进制编码时直接从头部读取，不需要解析数据
+		long expireAt = cacheCodec.readExpireAt(bytes);
+		R r = cacheCodec.decode(bytes, type, true);
+		if (r == null) {
+			// 无法解码的数据（实体字段变化后的旧数据等）按未命中处理，从数据库重建
+			return rebuildUndecodable(dataKeyPrefix, dataKey, lockKey, id, function, expireTime, unit);
+		}
 		// 3.2 判断是否过期
-		if (originExpireTime.isAfter(LocalDateTime.now())) {
-			// 3.3 未过期，直接返回店铺数据
-			return r;
+		if (expireAt > System.currentTimeMillis()) {
+			// 3.3 未过期，存入本地缓存，直接返回店铺数据
+			putLocal(localTtl, dataKey, new RedisData<>(r, JsonCacheCodec.toLocalDateTime(expireAt)), bytes.length);
+			// 3.4 开启提前刷新时，距离过期越近、重建越慢，越有可能提前重建
+			if (!shouldRefreshEarly(dataKeyPrefix, expireAt)) {
+				return r;
+			}
 		}
-		// 3.4 已过期，进行缓存重建
-		// 5. 缓存重建
-		// 5.1 获取互斥锁
-		String lockKey = lockKeyPrefix + id;
-		Boolean isLock = tryLock(lockKey);
-		// 5.2 判断是否获取到锁
-		if (isLock) {
-			// 5.3 二次查询缓存是否过期，防止恰好重建完数据获取到锁
-			redisDataDTOJson = stringValueOperations.get(dataKey);
-			redisDataDTO = JSONUtil.toBean(redisDataDTOJson, RedisDataDTO.class);
-			r = JSONUtil.toBean((JSONObject) redisDataDTO.getData(), type);
-			originExpireTime = redisDataDTO.getExpireTime();
-			// 判断是否过期
-			if (originExpireTime.isAfter(LocalDateTime.now())) {
-				// 未过期，释放锁，直接返回店铺数据
+		// 4. 已过期或需要提前刷新，进行缓存重建，返回旧的店铺数据
+		R fresh = rebuildAsync(dataKeyPrefix, dataKey, lockKey, id, type, function, expireTime, unit, expireAt, localTtl);
+		return fresh != null ? fresh : r;
+	}
+
+	/**
+	 * 同步重建无法解码的缓存：直接查询数据库返回，获取到锁的线程把数据写回缓存
+	 *
+	 * @return 数据库中的数据，不存在时为null
+	 */
+	private <R, T> R rebuildUndecodable(String dataKeyPrefix, String dataKey, String lockKey, T id,
+										Function<T, R> function, Long expireTime, TimeUnit unit) {
+		long start = System.nanoTime();
+		R r = function.apply(id);
+		if (tryLock(lockKey)) {
+			try {
+				this.setWithLogicExpire(dataKey, r, expireTime, unit);
+				recordRebuildCost(dataKeyPrefix, (System.nanoTime() - start) / 1_000_000.0);
+			} finally {
 				unlock(lockKey);
-				return r;
 			}
-			// 5.4 已获取到锁，开启独立线程进行缓存重建
-			CACHE_REBUILD_EXECUTOR.submit(() -> {
-				try {
-					// 查询数据库
-					R r1 = function.apply(id);
-					// 缓存带有逻辑时间的数据
-					this.setWithLogicExpire(dataKey, r1, expireTime, unit);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				} finally {
-					// 5.5 释放锁
-					unlock(lockKey);
-				}
-			});
 		}
-		// 6. 返回旧的店铺数据
 		return r;
 	}
 
+	/**
+	 * 异步重建逻辑过期的缓存
+	 *
+	 * @param expireAt 当前缓存的逻辑过期时间，缓存中的过期时间比它晚说明已经被其他线程重建
+	 * @return 缓存已经被其他线程重建时返回新数据，否则返回null
+	 */
+	private <R, T> R rebuildAsync(String dataKeyPrefix, String dataKey, String lockKey, T id, Class<R> type,
+								  Function<T, R> function, Long expireTime, TimeUnit unit, long expireAt, Long localTtl) {
+		// 1. 本节点已经在重建，直接返回
+		if (cacheRebuildExecutor.isRebuilding(dataKey)) {
+			return null;
+		}
+		// 2. 获取互斥锁
+		if (!tryLock(lockKey)) {
+			return null;
+		}
+		// 3. 二次查询缓存，过期时间已经变化说明恰好重建完数据获取到锁，没有变化时不需要再解析数据
+		byte[] bytes = getBytes(dataKey);
+		if (bytes != null && bytes.length > 0) {
+			long newExpireAt = cacheCodec.readExpireAt(bytes);
+			R fresh = newExpireAt > Math.max(expireAt, System.currentTimeMillis()) ? cacheCodec.decode(bytes, type, true) : null;
+			if (fresh != null) {
+				// 已经重建，释放锁，直接返回新数据
+				unlock(lockKey);
+				putLocal(localTtl, dataKey, new RedisData<>(fresh, JsonCacheCodec.toLocalDateTime(newExpireAt)), bytes.length);
+				return fresh;
+			}
+		}
+		// 4. 已获取到锁，提交到重建线程池，线程池已满时释放锁
+		boolean submitted = cacheRebuildExecutor.submit(dataKey, () -> {
+			try {
+				long start = System.nanoTime();
+				// 查询数据库
+				R r1 = function.apply(id);
+				// 缓存带有逻辑时间的数据，数据库中已经不存在时写入空值
+				this.setWithLogicExpire(dataKey, r1, expireTime, unit);
+				// 记录重建耗时，用于计算提前刷新的概率
+				recordRebuildCost(dataKeyPrefix, (System.nanoTime() - start) / 1_000_000.0);
+			} finally {
+				// 5. 释放锁
+				unlock(lockKey);
+			}
+		});
+		if (!submitted) {
+			unlock(lockKey);
+		}
+		return null;
+	}
+
+	/**
+	 * 为某个key前缀开启逻辑过期数据的提前刷新（XFetch）
+	 * 每次读取到未过期的数据时，以 now - 重建耗时 * beta * ln(random) >= 过期时间 判断是否提前重建，
+	 * 请求越多、重建越慢，越早有一个请求触发重建，避免同时过期的热点key在过期时刻一起争抢重建锁
+	 *
+	 * @param keyPrefix key前缀
+	 * @param beta      大于1时更倾向于提前刷新，小于1时更倾向于延后
+	 */
+	public void enableEarlyRefresh(String keyPrefix, double beta) {
+		earlyRefreshBetaMap.put(keyPrefix, beta);
+	}
+
+	/**
+	 * 判断是否需要提前刷新，未开启提前刷新的前缀返回false
+	 */
+	private boolean shouldRefreshEarly(String keyPrefix, long expireAt) {
+		Double beta = earlyRefreshBetaMap.get(keyPrefix);
+		if (beta == null) {
+			return false;
+		}
+		return xfetch(System.currentTimeMillis(), expireAt, rebuildCostMap.getOrDefault(keyPrefix, DEFAULT_REBUILD_COST_MILLIS), beta);
+	}
+
+	/**
+	 * XFetch提前刷新判断
+	 *
+	 * @param now         当前时间戳（毫秒）
+	 * @param expireAt    逻辑过期时间戳（毫秒）
+	 * @param deltaMillis 重建耗时（毫秒）
+	 * @param beta        提前刷新系数
+	 * @return 是否需要刷新
+	 */
+	public static boolean xfetch(long now, long expireAt, double deltaMillis, double beta) {
+		// 1 - nextDouble() 的取值范围为 (0, 1]，ln后不会出现负无穷
+		return now - deltaMillis * beta * Math.log(1 - ThreadLocalRandom.current().nextDouble()) >= expireAt;
+	}
+
+	/**
+	 * 记录重建耗时，取指数加权平均
+	 */
+	private void recordRebuildCost(String keyPrefix, double costMillis) {
+		rebuildCostMap.merge(keyPrefix, costMillis, (oldCost, cost) -> oldCost * 0.8 + cost * 0.2);
+	}
+
+	/**
+	 * 批量查询数据：一次MGET查询缓存，未命中的数据一次批量查询数据库，再通过管道批量写回缓存
+	 *
+	 * @param dataKeyPrefix 数据缓存key前缀
+	 * @param ids 数据id列表
+	 * @param type 数据类型
+	 * @param bulkLoader 数据库批量查询函数，返回 id -> 数据
+	 * @param expireTime 过期时间
+	 * @param unit 过期时间单位
+	 * @param <R> 返回值类型
+	 * @param <T> 参数类型
+	 * @return 与ids顺序一致的数据列表，不存在的数据为null
+	 */
+	public <R, T> List<R> queryBatch(String dataKeyPrefix, List<T> ids, Class<R> type,
+									 Function<Collection<T>, Map<T, R>> bulkLoader, Long expireTime, TimeUnit unit) {
+		return queryBatch(dataKeyPrefix, ids, type, bulkLoader, expireTime, unit, false);
+	}
+
+	/**
+	 * 批量查询带有逻辑过期时间的数据，逻辑过期的数据照常返回旧数据，与 querywithLogicExpiration 使用同一种缓存格式
+	 *
+	 * @param dataKeyPrefix 数据缓存key前缀
+	 * @param ids 数据id列表
+	 * @param type 数据类型
+	 * @param bulkLoader 数据库批量查询函数，返回 id -> 数据
+	 * @param expireTime 逻辑过期时间
+	 * @param unit 过期时间单位
+	 * @param <R> 返回值类型
+	 * @param <T> 参数类型
+	 * @return 与ids顺序一致的数据列表，不存在的数据为null
+	 */
+	public <R, T> List<R> queryBatchWithLogicExpiration(String dataKeyPrefix, List<T> ids, Class<R> type,
+														Function<Collection<T>, Map<T, R>> bulkLoader, Long expireTime, TimeUnit unit) {
+		return queryBatch(dataKeyPrefix, ids, type, bulkLoader, expireTime, unit, true);
+	}
+
+	private <R, T> List<R> queryBatch(String dataKeyPrefix, List<T> ids, Class<R> type,
+									  Function<Collection<T>, Map<T, R>> bulkLoader, Long expireTime, TimeUnit unit,
+									  boolean logicExpire) {
+		if (ids == null || ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Long localTtl = localTtlMap.get(dataKeyPrefix);
+		// 未确定的位置为null，缓存的空数据为NULL_VALUE
+		Object[] values = new Object[ids.size()];
+		// 1. 查询本地缓存
+		List<Integer> redisIndexes = new ArrayList<>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			LocalEntry localEntry = localTtl == null ? null : localCache.getIfPresent(dataKeyPrefix + ids.get(i));
+			if (localEntry == null) {
+				redisIndexes.add(i);
+			} else {
+				values[i] = localEntry.value instanceof RedisData ? ((RedisData<?>) localEntry.value).getData() : localEntry.value;
+			}
+		}
+		// 2. 布隆过滤器判断一定不存在的数据，不查询Redis和数据库
+		if (!redisIndexes.isEmpty()) {
+			List<T> checkIds = redisIndexes.stream().map(ids::get).collect(Collectors.toList());
+			boolean[] mightContain = cacheBloomFilter.mightContain(dataKeyPrefix, checkIds);
+			List<Integer> containIndexes = new ArrayList<>(redisIndexes.size());
+			for (int j = 0; j < redisIndexes.size(); j++) {
+				if (mightContain[j]) {
+					containIndexes.add(redisIndexes.get(j));
+				} else {
+					values[redisIndexes.get(j)] = NULL_VALUE;
+				}
+			}
+			redisIndexes = containIndexes;
+		}
+		// 3. 一次MGET查询Redis
+		Set<T> missIds = new LinkedHashSet<>();
+		if (!redisIndexes.isEmpty()) {
+			List<String> keys = redisIndexes.stream().map(i -> dataKeyPrefix + ids.get(i)).collect(Collectors.toList());
+			List<byte[]> bytesList = multiGetBytes(keys);
+			for (int j = 0; j < redisIndexes.size(); j++) {
+				int i = redisIndexes.get(j);
+				byte[] bytes = bytesList == null ? null : bytesList.get(j);
+				if (bytes == null) {
+					missIds.add(ids.get(i));
+				} else if (bytes.length == 0) {
+					// 防止缓存穿透的空数据
+					values[i] = NULL_VALUE;
+					putLocal(localTtl, keys.get(j), NULL_VALUE, 0);
+				} else {
+					R r = cacheCodec.decode(bytes, type, logicExpire);
+					if (r == null) {
+						// 无法解码的旧数据按未命中处理
+						missIds.add(ids.get(i));
+						continue;
+					}
+					values[i] = r;
+					Object localValue = logicExpire
+							? new RedisData<>(r, JsonCacheCodec.toLocalDateTime(cacheCodec.readExpireAt(bytes))) : r;
+					putLocal(localTtl, keys.get(j), localValue, bytes.length);
+				}
+			}
+		}
+		// 4. 未命中的数据一次批量查询数据库，并通过管道批量写回缓存
+		if (!missIds.isEmpty()) {
+			Map<T, R> loadedMap = bulkLoader.apply(missIds);
+			writeBatch(dataKeyPrefix, missIds, loadedMap, expireTime, unit, logicExpire, localTtl);
+			for (int i = 0; i < ids.size(); i++) {
+				if (values[i] == null) {
+					R r = loadedMap.get(ids.get(i));
+					values[i] = r == null ? NULL_VALUE : r;
+				}
+			}
+		}
+		// 5. 按ids顺序组装返回结果
+		List<R> resultList = new ArrayList<>(ids.size());
+		for (Object value : values) {
+			resultList.add(value == null || value == NULL_VALUE ? null : type.cast(value));
+		}
+		return resultList;
+	}
+
+	/**
+	 * 通过管道批量写入缓存，数据库中不存在的数据写入空值，避免缓存穿透
+	 */
+	private <R, T> void writeBatch(String dataKeyPrefix, Collection<T> ids, Map<T, R> dataMap, Long expireTime, TimeUnit unit,
+								   boolean logicExpire, Long localTtl) {
+		long logicExpireAt = System.currentTimeMillis() + unit.toMillis(expireTime);
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			RedisStringCommands stringCommands = connection.stringCommands();
+			for (T id : ids) {
+				String key = dataKeyPrefix + id;
+				byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+				R r = dataMap.get(id);
+				if (r == null) {
+					stringCommands.set(rawKey, new byte[0], Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES),
+							RedisStringCommands.SetOption.upsert());
+					putLocal(localTtl, key, NULL_VALUE, 0);
+				} else if (logicExpire) {
+					byte[] bytes = cacheCodec.encode(r, logicExpireAt);
+					stringCommands.set(rawKey, bytes);
+					putLocal(localTtl, key, new RedisData<>(r, JsonCacheCodec.toLocalDateTime(logicExpireAt)), bytes.length);
+				} else {
+					byte[] bytes = cacheCodec.encode(r, CacheCodec.NO_EXPIRE);
+					stringCommands.set(rawKey, bytes, Expiration.from(expireTime, unit), RedisStringCommands.SetOption.upsert());
+					putLocal(localTtl, key, r, bytes.length);
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 本地缓存的统计信息：命中率、淘汰数、失效通知数等
+	 *
+	 * @return 统计信息
+	 */
+	public Map<String, Object> localCacheStats() {
+		CacheStats stats = localCache.stats();
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		statsMap.put("size", localCache.estimatedSize());
+		statsMap.put("hitCount", stats.hitCount());
+		statsMap.put("missCount", stats.missCount());
+		statsMap.put("hitRate", stats.hitRate());
+		statsMap.put("evictionCount", stats.evictionCount());
+		statsMap.put("evictionWeight", stats.evictionWeight());
+		statsMap.put("invalidationCount", invalidationCount.get());
+		return statsMap;
+	}
+
+	/**
+	 * 收到其他节点的缓存失效通知，删除本地缓存
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+		invalidationCount.incrementAndGet();
+	}
+
+	/**
+	 * 写入本地缓存，未开启本地缓存的前缀直接忽略
+	 *
+	 * @param ttlNanos 本地缓存过期时间，为空表示未开启
+	 * @param key      key
+	 * @param value    已反序列化的数据
+	 * @param weight   权重，取编码后的字节数近似数据大小
+	 */
+	private void putLocal(Long ttlNanos, String key, Object value, int weight) {
+		if (ttlNanos == null || value == null) {
+			return;
+		}
+		localCache.put(key, new LocalEntry(value, ttlNanos, Math.max(weight, 1)));
+	}
+
+	/**
+	 * 按字节读取Redis缓存，绕过StringRedisTemplate的字符串序列化
+	 */
+	private byte[] getBytes(String key) {
+		return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+				connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * 按字节批量读取Redis缓存
+	 */
+	private List<byte[]> multiGetBytes(List<String> keys) {
+		byte[][] rawKeys = keys.stream().map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+		return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(rawKeys));
+	}
+
+	/**
+	 * 按字节写入Redis缓存
+	 *
+	 * @param expiration 过期时间，为空表示不过期
+	 */
+	private void setBytes(String key, byte[] bytes, Expiration expiration) {
+		byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+		stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> expiration == null
+				? connection.stringCommands().set(rawKey, bytes)
+				: connection.stringCommands().set(rawKey, bytes, expiration, RedisStringCommands.SetOption.upsert()));
+	}
+
+	/**
+	 * 根据完整key查找所属前缀的本地缓存过期时间
+	 */
+	private Long findLocalTtl(String key) {
+		for (Map.Entry<String, Long> entry : localTtlMap.entrySet()) {
+			if (key.startsWith(entry.getKey())) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * 获取锁
 	 *
@@ -216,5 +835,18 @@ public class CacheClient {
 		stringRedisTemplate.delete(key);
 	}
 
+	/**
+	 * 本地缓存项
+	 */
+	private static class LocalEntry {
+		private final Object value;
+		private final long ttlNanos;
+		private final int weight;
 
+		private LocalEntry(Object value, long ttlNanos, int weight) {
+			this.value = value;
+			this.ttlNanos = ttlNanos;
+			this.weight = weight;
+		}
+	}
 }
@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 缓存数据编解码接口，逻辑过期时间与数据一起编码
+ * @author: Mr.Ye
+ * @create: 2026-10-18 19:40
+ **/
+public interface CacheCodec {
+
+	/**
+	 * 没有逻辑过期时间
+	 */
+	long NO_EXPIRE = -1L;
+
+	/**
+	 * 编码数据
+	 *
+	 * @param value    数据
+	 * @param expireAt 逻辑过期时间戳（毫秒），NO_EXPIRE表示没有逻辑过期时间
+	 * @return 编码后的字节
+	 */
+	byte[] encode(Object value, long expireAt);
+
+	/**
+	 * 解码数据
+	 *
+	 * @param bytes       编码后的字节
+	 * @param type        数据类型
+	 * @param logicExpire 编码时是否带有逻辑过期时间
+	 * @param <R>         数据类型
+	 * @return 数据，无法解码时返回null
+	 */
+	<R> R decode(byte[] bytes, Class<R> type, boolean logicExpire);
+
+	/**
+	 * 读取逻辑过期时间戳（毫秒）
+	 *
+	 * @param bytes 编码后的字节
+	 * @return 逻辑过期时间戳，没有时返回NO_EXPIRE
+	 */
+	long readExpireAt(byte[] bytes);
+}
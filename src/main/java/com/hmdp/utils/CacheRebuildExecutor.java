@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 缓存重建线程池，所有逻辑过期缓存的异步重建共用
+ * 队列有界，同一个key同时只有一个重建任务，线程池满时拒绝提交，由调用方继续返回旧数据
+ * @author: Mr.Ye
+ * @create: 2026-10-18 21:40
+ **/
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * 正在重建（排队或执行中）的key
+	 */
+	private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong submittedCount = new AtomicLong();
+
+	private final AtomicLong dedupedCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong succeededCount = new AtomicLong();
+
+	/**
+	 * 重建总耗时、最大耗时（毫秒）
+	 */
+	private final AtomicLong totalCostMillis = new AtomicLong();
+
+	private final AtomicLong maxCostMillis = new AtomicLong();
+
+	public CacheRebuildExecutor(@Value("${hmdp.cache.rebuild.threads:10}") int threads,
+								@Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), ThreadUtil.newNamedThreadFactory("cache-rebuild-", true),
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * 判断key是否正在重建
+	 *
+	 * @param key 缓存key
+	 * @return 是否正在重建
+	 */
+	public boolean isRebuilding(String key) {
+		return inFlightKeys.contains(key);
+	}
+
+	/**
+	 * 提交重建任务
+	 *
+	 * @param key  缓存key，同一个key正在重建时不会重复提交
+	 * @param task 重建任务
+	 * @return 是否提交成功，key正在重建或线程池已满时返回false
+	 */
+	public boolean submit(String key, Runnable task) {
+		if (!inFlightKeys.add(key)) {
+			dedupedCount.incrementAndGet();
+			return false;
+		}
+		try {
+			executor.execute(() -> {
+				long start = System.currentTimeMillis();
+				try {
+					task.run();
+					succeededCount.incrementAndGet();
+				} catch (Exception e) {
+					failedCount.incrementAndGet();
+					log.error("缓存重建失败！key：{}", key, e);
+				} finally {
+					long cost = System.currentTimeMillis() - start;
+					totalCostMillis.addAndGet(cost);
+					maxCostMillis.accumulateAndGet(cost, Math::max);
+					inFlightKeys.remove(key);
+				}
+			});
+			submittedCount.incrementAndGet();
+			return true;
+		} catch (RejectedExecutionException e) {
+			inFlightKeys.remove(key);
+			rejectedCount.incrementAndGet();
+			log.warn("缓存重建线程池已满，继续返回旧数据！key：{}", key);
+			return false;
+		}
+	}
+
+	/**
+	 * 线程池的队列长度、重建耗时、失败数等统计信息
+	 *
+	 * @return 统计信息
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		statsMap.put("poolSize", executor.getPoolSize());
+		statsMap.put("activeCount", executor.getActiveCount());
+		statsMap.put("queueSize", executor.getQueue().size());
+		statsMap.put("queueRemainingCapacity", executor.getQueue().remainingCapacity());
+		statsMap.put("inFlightCount", inFlightKeys.size());
+		statsMap.put("submittedCount", submittedCount.get());
+		statsMap.put("dedupedCount", dedupedCount.get());
+		statsMap.put("rejectedCount", rejectedCount.get());
+		statsMap.put("succeededCount", succeededCount.get());
+		statsMap.put("failedCount", failedCount.get());
+		long finished = succeededCount.get() + failedCount.get();
+		statsMap.put("avgCostMillis", finished == 0 ? 0 : totalCostMillis.get() / finished);
+		statsMap.put("maxCostMillis", maxCostMillis.get());
+		return statsMap;
+	}
+
+	@PreDestroy
+	private void destroy() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,399 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 笔记推送到粉丝收件箱的异步任务，发布笔记时只写入Stream队列
+ * 消费线程按ID分页查询粉丝，每页通过管道批量写入收件箱并裁剪长度，进度（已推送数、分页位置）保存在Redis中，
+ * 节点宕机后由恢复任务认领消息，从上次的分页位置继续推送；粉丝数达到阈值的作者只写入自己的发件箱，由粉丝读取时合并
+ * @author: Mr.Ye
+ * @create: 2026-10-19 00:20
+ **/
+@Slf4j
+@Component
+public class FeedFanoutWorker {
+
+	public static final String STATUS_PENDING = "pending";
+
+	public static final String STATUS_RUNNING = "running";
+
+	public static final String STATUS_DONE = "done";
+
+	public static final String STATUS_FAILED = "failed";
+
+	/**
+	 * 推模式：写入每个粉丝的收件箱
+	 */
+	public static final String MODE_PUSH = "push";
+
+	/**
+	 * 拉模式：只写入作者的发件箱
+	 */
+	public static final String MODE_PULL = "pull";
+
+	/**
+	 * 本节点消费者名称前缀：c-进程号@主机名-，保证集群中每个消费者名称唯一
+	 */
+	private static final String CONSUMER_NAME_PREFIX = "c-" + ManagementFactory.getRuntimeMXBean().getName() + "-";
+
+	private static final String RECOVERY_CONSUMER_NAME = CONSUMER_NAME_PREFIX + "recovery";
+
+	/**
+	 * 每次扫描pending-list的消息数
+	 */
+	private static final long RECOVERY_BATCH_SIZE = 100L;
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Resource
+	private IFollowService followService;
+
+	/**
+	 * 消费者线程数
+	 */
+	@Value("${hmdp.feed.fanout.consumer-count:2}")
+	private int consumerCount;
+
+	/**
+	 * 每页查询的粉丝数，即每个管道写入的收件箱数
+	 */
+	@Value("${hmdp.feed.fanout.page-size:1000}")
+	private int pageSize;
+
+	/**
+	 * 收件箱最大长度，超过时删除最早的笔记
+	 */
+	@Value("${hmdp.feed.inbox-max-size:1000}")
+	private long inboxMaxSize;
+
+	/**
+	 * 粉丝数达到该值的作者使用拉模式
+	 */
+	@Value("${hmdp.feed.big-author-threshold:10000}")
+	private int bigAuthorThreshold;
+
+	/**
+	 * 发件箱最大长度
+	 */
+	@Value("${hmdp.feed.outbox-max-size:1000}")
+	private long outboxMaxSize;
+
+	/**
+	 * pending消息空闲超过该时间（毫秒）才会被恢复任务认领
+	 */
+	@Value("${hmdp.feed.fanout.recovery.min-idle:60000}")
+	private long recoveryMinIdle;
+
+	/**
+	 * 最大投递次数，达到后不再重试
+	 */
+	@Value("${hmdp.feed.fanout.recovery.max-deliveries:3}")
+	private long recoveryMaxDeliveries;
+
+	private ExecutorService fanoutExecutor;
+
+	private final AtomicLong publishedCount = new AtomicLong();
+
+	private final AtomicLong completedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong pushedCount = new AtomicLong();
+
+	private final AtomicLong totalCostMillis = new AtomicLong();
+
+	private final AtomicLong maxCostMillis = new AtomicLong();
+
+	@PostConstruct
+	private void init() {
+		// 创建消费者组，Stream不存在时自动创建，消费者组已存在时忽略
+		try {
+			stringRedisTemplate.opsForStream().createGroup(RedisConstants.STREAM_FEED_KEY, ReadOffset.from("0"),
+					RedisConstants.STREAM_FEED_GROUP);
+		} catch (Exception e) {
+			log.debug("笔记推送消费者组已存在：{}", e.getMessage());
+		}
+		fanoutExecutor = Executors.newFixedThreadPool(consumerCount, ThreadUtil.newNamedThreadFactory("feed-fanout-", true));
+		for (int i = 0; i < consumerCount; i++) {
+			fanoutExecutor.submit(new FanoutHandler(CONSUMER_NAME_PREFIX + i));
+		}
+	}
+
+	@PreDestroy
+	private void destroy() {
+		fanoutExecutor.shutdownNow();
+	}
+
+	/**
+	 * 发布笔记推送任务，立即返回
+	 *
+	 * @param blogId   笔记ID
+	 * @param authorId 作者ID
+	 * @param time     发布时间（毫秒），作为收件箱中的分数
+	 */
+	public void publish(Long blogId, Long authorId, long time) {
+		String progressKey = RedisConstants.FEED_FANOUT_KEY + blogId;
+		Map<String, String> message = new HashMap<>(4);
+		message.put("blogId", blogId.toString());
+		message.put("authorId", authorId.toString());
+		message.put("time", String.valueOf(time));
+		Map<String, String> progressMap = new HashMap<>(4);
+		progressMap.put("status", STATUS_PENDING);
+		progressMap.put("pushed", "0");
+		progressMap.put("createTime", String.valueOf(System.currentTimeMillis()));
+		// 初始化进度并写入队列
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.hMSet(progressKey, progressMap);
+			stringConnection.expire(progressKey, RedisConstants.FEED_FANOUT_TTL);
+			stringConnection.xAdd(RedisConstants.STREAM_FEED_KEY, message);
+			return null;
+		});
+		publishedCount.incrementAndGet();
+	}
+
+	/**
+	 * 查询笔记的推送进度
+	 *
+	 * @param blogId 笔记ID
+	 * @return 状态、已推送数、开始和结束时间，没有推送记录时为空
+	 */
+	public Map<Object, Object> progress(Long blogId) {
+		return stringRedisTemplate.opsForHash().entries(RedisConstants.FEED_FANOUT_KEY + blogId);
+	}
+
+	/**
+	 * 队列长度、待确认数和推送耗时等统计信息
+	 *
+	 * @return 统计信息
+	 */
+	public Map<String, Object> stats() {
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		StreamOperations<String, Object, Object> streamOperations = stringRedisTemplate.opsForStream();
+		statsMap.put("streamLength", streamOperations.size(RedisConstants.STREAM_FEED_KEY));
+		PendingMessagesSummary summary = streamOperations.pending(RedisConstants.STREAM_FEED_KEY, RedisConstants.STREAM_FEED_GROUP);
+		statsMap.put("pendingCount", summary == null ? 0 : summary.getTotalPendingMessages());
+		statsMap.put("publishedCount", publishedCount.get());
+		statsMap.put("completedCount", completedCount.get());
+		statsMap.put("failedCount", failedCount.get());
+		statsMap.put("pushedCount", pushedCount.get());
+		long finished = completedCount.get();
+		statsMap.put("avgCostMillis", finished == 0 ? 0 : totalCostMillis.get() / finished);
+		statsMap.put("maxCostMillis", maxCostMillis.get());
+		return statsMap;
+	}
+
+	private class FanoutHandler implements Runnable {
+
+		private final Consumer consumer;
+
+		private FanoutHandler(String consumerName) {
+			this.consumer = Consumer.from(RedisConstants.STREAM_FEED_GROUP, consumerName);
+		}
+
+		@Override
+		public void run() {
+			StreamOperations<String, Object, Object> streamOperations = stringRedisTemplate.opsForStream();
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					// 1. 每次读取一条消息，一条消息可能要推送给大量粉丝 XREADGROUP GROUP g1 c-x COUNT 1 BLOCK 2000 STREAMS stream.feed >
+					List<MapRecord<String, Object, Object>> recordList = streamOperations.read(consumer,
+							StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+							StreamOffset.create(RedisConstants.STREAM_FEED_KEY, ReadOffset.lastConsumed()));
+					if (recordList == null || recordList.isEmpty()) {
+						continue;
+					}
+					// 2. 推送并确认消息，失败的消息留在pending-list中，由恢复任务认领重试
+					for (MapRecord<String, Object, Object> record : recordList) {
+						fanout(record, consumer.getName());
+					}
+				} catch (Exception e) {
+					log.error("推送笔记到粉丝收件箱异常！", e);
+					try {
+						TimeUnit.MILLISECONDS.sleep(20);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 认领空闲超时的pending消息继续推送，投递次数达到上限的消息标记为失败并确认
+	 */
+	@Scheduled(fixedDelayString = "${hmdp.feed.fanout.recovery.interval:30000}")
+	public void recoverPendingFanouts() {
+		Range<?> range = Range.unbounded();
+		try {
+			while (true) {
+				// 1. 扫描pending-list XPENDING stream.feed g1 - + n
+				PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(RedisConstants.STREAM_FEED_KEY,
+						RedisConstants.STREAM_FEED_GROUP, range, RECOVERY_BATCH_SIZE);
+				if (pendingMessages.isEmpty()) {
+					break;
+				}
+				for (PendingMessage pendingMessage : pendingMessages) {
+					if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < recoveryMinIdle) {
+						continue;
+					}
+					// 2. 认领消息，多个节点同时扫描时同一条消息只会被一个节点认领
+					List<StringRecord> recordList = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+							((StringRedisConnection) connection).xClaim(RedisConstants.STREAM_FEED_KEY, RedisConstants.STREAM_FEED_GROUP,
+									RECOVERY_CONSUMER_NAME, Duration.ofMillis(recoveryMinIdle), pendingMessage.getId()));
+					if (recordList == null || recordList.isEmpty()) {
+						continue;
+					}
+					StringRecord record = recordList.get(0);
+					// 3. 投递次数达到上限，标记为失败
+					if (pendingMessage.getTotalDeliveryCount() >= recoveryMaxDeliveries) {
+						failedCount.incrementAndGet();
+						stringRedisTemplate.opsForHash().put(RedisConstants.FEED_FANOUT_KEY + record.getValue().get("blogId"),
+								"status", STATUS_FAILED);
+						stringRedisTemplate.opsForStream().acknowledge(RedisConstants.STREAM_FEED_KEY, RedisConstants.STREAM_FEED_GROUP,
+								record.getId());
+						log.error("笔记推送多次失败，不再重试！消息ID：{}，内容：{}", record.getId(), record.getValue());
+						continue;
+					}
+					// 4. 从上次的分页位置继续推送
+					fanout(record, RECOVERY_CONSUMER_NAME);
+				}
+				if (pendingMessages.size() < RECOVERY_BATCH_SIZE) {
+					break;
+				}
+				// 5. 下一页从最后一条消息的下一个ID开始
+				RecordId lastId = pendingMessages.get(pendingMessages.size() - 1).getId();
+				range = Range.rightUnbounded(Range.Bound.inclusive(RecordId.of(lastId.getTimestamp(), lastId.getSequence() + 1).getValue()));
+			}
+		} catch (Exception e) {
+			log.error("处理pending-list笔记推送异常！", e);
+		}
+	}
+
+	/**
+	 * 按粉丝ID分页推送一条笔记，每页通过管道一次写入收件箱、裁剪长度并记录进度，完成后确认消息
+	 *
+	 * @param record       Stream消息
+	 * @param consumerName 当前消费者名称
+	 */
+	private void fanout(MapRecord<String, ?, ?> record, String consumerName) {
+		long start = System.currentTimeMillis();
+		Map<?, ?> message = record.getValue();
+		String blogId = message.get("blogId").toString();
+		long authorId = Long.parseLong(message.get("authorId").toString());
+		double time = Double.parseDouble(message.get("time").toString());
+		String progressKey = RedisConstants.FEED_FANOUT_KEY + blogId;
+		// 1. 粉丝数达到阈值的作者只写入自己的发件箱，由粉丝读取时拉取
+		if (isBigAuthor(authorId)) {
+			String outboxKey = RedisConstants.FEED_OUTBOX_KEY + authorId;
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringConnection = (StringRedisConnection) connection;
+				stringConnection.zAdd(outboxKey, time, blogId);
+				stringConnection.zRemRange(outboxKey, 0, -outboxMaxSize - 1);
+				stringConnection.hSet(progressKey, "mode", MODE_PULL);
+				return null;
+			});
+			complete(record, progressKey, 0L, start);
+			return;
+		}
+		// 2. 从上次的分页位置继续，首次推送从头开始
+		Object cursorValue = stringRedisTemplate.opsForHash().get(progressKey, "cursor");
+		long cursor = cursorValue == null ? 0L : Long.parseLong(cursorValue.toString());
+		Map<String, String> runningMap = new HashMap<>(2);
+		runningMap.put("status", STATUS_RUNNING);
+		runningMap.put("mode", MODE_PUSH);
+		stringRedisTemplate.opsForHash().putAll(progressKey, runningMap);
+		long pushed = 0;
+		while (true) {
+			// 3. 按ID分页查询粉丝
+			List<Follow> followList = followService.query().select("id", "user_id").eq("follow_user_id", authorId)
+					.gt("id", cursor).orderByAsc("id").last("limit " + pageSize).list();
+			if (followList.isEmpty()) {
+				break;
+			}
+			long lastCursor = followList.get(followList.size() - 1).getId();
+			// 4. 通过管道写入这一页粉丝的收件箱，裁剪到最大长度，并记录进度
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringConnection = (StringRedisConnection) connection;
+				for (Follow follow : followList) {
+					String feedKey = RedisConstants.FEED_KEY + follow.getUserId();
+					stringConnection.zAdd(feedKey, time, blogId);
+					stringConnection.zRemRange(feedKey, 0, -inboxMaxSize - 1);
+				}
+				stringConnection.hIncrBy(progressKey, "pushed", followList.size());
+				stringConnection.hSet(progressKey, "cursor", String.valueOf(lastCursor));
+				// 重置消息的空闲时间，避免推送时间较长时被恢复任务重复认领
+				stringConnection.xClaimJustId(RedisConstants.STREAM_FEED_KEY, RedisConstants.STREAM_FEED_GROUP, consumerName,
+						RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(record.getId()));
+				return null;
+			});
+			pushed += followList.size();
+			cursor = lastCursor;
+			if (followList.size() < pageSize) {
+				break;
+			}
+		}
+		// 5. 标记完成并确认消息
+		complete(record, progressKey, pushed, start);
+	}
+
+	/**
+	 * 判断作者是否使用拉模式：粉丝数达到阈值后加入大V集合，之后一直使用拉模式，
+	 * 避免粉丝数在阈值附近变化时，同一个作者的笔记分散在收件箱和发件箱中
+	 *
+	 * @param authorId 作者ID
+	 * @return 是否使用拉模式
+	 */
+	private boolean isBigAuthor(Long authorId) {
+		if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_BIG_AUTHOR_KEY, authorId.toString()))) {
+			return true;
+		}
+		Integer followerCount = followService.query().eq("follow_user_id", authorId).count();
+		if (followerCount < bigAuthorThreshold) {
+			return false;
+		}
+		stringRedisTemplate.opsForSet().add(RedisConstants.FEED_BIG_AUTHOR_KEY, authorId.toString());
+		log.info("作者粉丝数达到{}，改为拉模式！作者：{}", followerCount, authorId);
+		return true;
+	}
+
+	private void complete(MapRecord<String, ?, ?> record, String progressKey, long pushed, long start) {
+		Map<String, String> doneMap = new HashMap<>(2);
+		doneMap.put("status", STATUS_DONE);
+		doneMap.put("finishTime", String.valueOf(System.currentTimeMillis()));
+		stringRedisTemplate.opsForHash().putAll(progressKey, doneMap);
+		stringRedisTemplate.opsForStream().acknowledge(RedisConstants.STREAM_FEED_KEY, RedisConstants.STREAM_FEED_GROUP, record.getId());
+		long cost = System.currentTimeMillis() - start;
+		completedCount.incrementAndGet();
+		pushedCount.addAndGet(pushed);
+		totalCostMillis.addAndGet(cost);
+		maxCostMillis.accumulateAndGet(cost, Math::max);
+		log.debug("笔记推送完成，笔记：{}，粉丝：{}，耗时：{}ms", record.getValue().get("blogId"), pushed, cost);
+	}
+}
@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.RowChangeDTO;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: binlog读取器的接口，按事务批量回调已提交的行变更，所有订阅者确认后才保存消费位置
+ * @author: Mr.Ye
+ * @create: 2026-10-18 22:12
+ **/
+public interface IBinlogReader {
+
+	/**
+	 * 订阅行变更
+	 *
+	 * @param listener 回调函数，参数为同一个事务中的行变更，以及处理完成后调用的确认函数；
+	 *                 按回调顺序确认，未确认的事务在重启后会重新回调
+	 */
+	void subscribe(BiConsumer<List<RowChangeDTO>, Runnable> listener);
+
+	/**
+	 * 是否正在订阅binlog，未订阅时调用方需要自己删除缓存
+	 *
+	 * @return 是否已连接
+	 */
+	boolean isConnected();
+}
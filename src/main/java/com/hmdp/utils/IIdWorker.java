@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 全局ID生成器的接口，ID格式：秒级时间戳 << 32 | 低32位序列号
+ * @author: Mr.Ye
+ * @create: 2026-10-18 16:05
+ **/
+public interface IIdWorker {
+
+	/**
+	 * 生成全局唯一ID
+	 *
+	 * @param keyPrefix 业务前缀
+	 * @return ID
+	 */
+	Long nextId(String keyPrefix);
+}
@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.connection.MessageListener;
+
+import java.util.Map;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 登录会话管理的接口，由hmdp.login.mode选择实现，监听其他节点的登出通知
+ * @author: Mr.Ye
+ * @create: 2026-10-18 23:40
+ **/
+public interface ILoginSessionManager extends MessageListener {
+
+	/**
+	 * 创建登录会话
+	 *
+	 * @param user 登录用户
+	 * @return token
+	 */
+	String create(UserDTO user);
+
+	/**
+	 * 根据token查询登录用户
+	 *
+	 * @param token token
+	 * @return 登录用户，未登录、已过期或已登出返回null
+	 */
+	UserDTO get(String token);
+
+	/**
+	 * 续期，在get成功后调用
+	 *
+	 * @param token token
+	 * @return 需要客户端替换的新token，不需要替换时返回null
+	 */
+	String renew(String token);
+
+	/**
+	 * 删除登录会话，并通知所有节点
+	 *
+	 * @param token token
+	 */
+	void invalidate(String token);
+
+	/**
+	 * 删除用户的所有登录会话，即登出所有设备
+	 *
+	 * @param userId 用户ID
+	 * @return 删除的会话数
+	 */
+	int invalidateAll(Long userId);
+
+	/**
+	 * 会话相关的统计信息
+	 *
+	 * @return 统计信息
+	 */
+	Map<String, Object> stats();
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisDataDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: JSON编解码，带逻辑过期时间的数据以 {data, expireTime} 格式存储
+ * @author: Mr.Ye
+ * @create: 2026-10-18 19:45
+ **/
+public class JsonCacheCodec implements CacheCodec {
+
+	@Override
+	public byte[] encode(Object value, long expireAt) {
+		Object data = expireAt == NO_EXPIRE ? value : new RedisData<>(value, toLocalDateTime(expireAt));
+		return JSONUtil.toJsonStr(data).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public <R> R decode(byte[] bytes, Class<R> type, boolean logicExpire) {
+		String json = new String(bytes, StandardCharsets.UTF_8);
+		if (!logicExpire) {
+			return JSONUtil.toBean(json, type);
+		}
+		RedisDataDTO redisDataDTO = JSONUtil.toBean(json, RedisDataDTO.class);
+		return JSONUtil.toBean((JSONObject) redisDataDTO.getData(), type);
+	}
+
+	@Override
+	public long readExpireAt(byte[] bytes) {
+		// JSON只能解析整个对象才能拿到过期时间
+		RedisDataDTO redisDataDTO = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisDataDTO.class);
+		LocalDateTime expireTime = redisDataDTO.getExpireTime();
+		return expireTime == null ? NO_EXPIRE : expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	public static LocalDateTime toLocalDateTime(long epochMilli) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+	}
+}
@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: Redis登录会话及其本地缓存，活跃用户的请求不需要访问Redis
+ * 本地缓存过期时间很短，登出时通过发布订阅通知所有节点删除；Redis中的会话只在剩余有效期低于阈值时才续期
+ * 每个用户的token保存在ZSet索引中（分数为过期时间），用于登出所有设备，并限制每个用户的会话数
+ * @author: Mr.Ye
+ * @create: 2026-10-18 23:20
+ **/
+@Component
+@ConditionalOnProperty(name = "hmdp.login.mode", havingValue = "redis", matchIfMissing = true)
+public class LoginSessionCache implements ILoginSessionManager {
+
+	private final StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * token -> 会话
+	 */
+	private final Cache<String, Session> sessionCache = Caffeine.newBuilder()
+			.maximumSize(100000)
+			.expireAfterWrite(RedisConstants.LOGIN_USER_LOCAL_TTL, TimeUnit.SECONDS)
+			.recordStats()
+			.build();
+
+	/**
+	 * 每个用户最多同时存在的会话数，超过时删除最久未续期的会话
+	 */
+	private final int maxSessions;
+
+	public LoginSessionCache(StringRedisTemplate stringRedisTemplate,
+							 @Value("${hmdp.login.max-sessions:10}") int maxSessions) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.maxSessions = maxSessions;
+	}
+
+	/**
+	 * 生成随机token，用户保存在Redis的Hash中，并通过管道一次写入会话和用户的token索引
+	 */
+	@Override
+	public String create(UserDTO user) {
+		// 1. 写入会话，加入用户的token索引，并删除索引中已过期的token
+		String token = UUID.randomUUID().toString(true);
+		Map<String, String> userMap = new HashMap<>(4);
+		BeanUtil.beanToMap(user, false, true).forEach((field, value) -> userMap.put(field, value.toString()));
+		String userKey = RedisConstants.LOGIN_USER_KEY + token;
+		String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + user.getId();
+		long now = System.currentTimeMillis();
+		long ttlMillis = TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_TTL);
+		List<Object> resultList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.hMSet(userKey, userMap);
+			stringConnection.pExpire(userKey, ttlMillis);
+			stringConnection.zAdd(tokensKey, now + ttlMillis, token);
+			stringConnection.zRemRangeByScore(tokensKey, 0, now);
+			stringConnection.pExpire(tokensKey, ttlMillis);
+			stringConnection.zCard(tokensKey);
+			return null;
+		});
+		// 2. 会话数超过上限时，删除最久未续期的会话
+		Long sessionCount = (Long) resultList.get(resultList.size() - 1);
+		if (sessionCount != null && sessionCount > maxSessions) {
+			Set<String> evictedTokens = stringRedisTemplate.opsForZSet().range(tokensKey, 0, sessionCount - maxSessions - 1);
+			removeSessions(tokensKey, evictedTokens);
+		}
+		return token;
+	}
+
+	/**
+	 * 根据token查询登录用户，必要时续期
+	 */
+	@Override
+	public UserDTO get(String token) {
+		String userKey = RedisConstants.LOGIN_USER_KEY + token;
+		long now = System.currentTimeMillis();
+		// 1. 查询本地缓存，Redis中已经过期的会话不再使用
+		Session session = sessionCache.getIfPresent(token);
+		if (session != null && session.expireAt <= now) {
+			sessionCache.invalidate(token);
+			session = null;
+		}
+		// 2. 本地缓存未命中，通过管道一次查询用户和剩余有效期
+		if (session == null) {
+			byte[] rawKey = userKey.getBytes(StandardCharsets.UTF_8);
+			List<Object> resultList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				connection.hashCommands().hGetAll(rawKey);
+				connection.keyCommands().pTtl(rawKey);
+				return null;
+			});
+			@SuppressWarnings("unchecked")
+			Map<Object, Object> userMap = (Map<Object, Object>) resultList.get(0);
+			Long pttl = (Long) resultList.get(1);
+			if (userMap == null || userMap.isEmpty() || pttl == null || pttl == -2) {
+				return null;
+			}
+			UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+			session = new Session(userDTO, pttl < 0 ? Long.MAX_VALUE : now + pttl);
+			sessionCache.put(token, session);
+		}
+		// 3. 剩余有效期低于阈值时才续期，同时更新token索引中的过期时间
+		if (session.expireAt - now < TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_REFRESH_THRESHOLD)) {
+			long ttlMillis = TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_TTL);
+			String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + session.user.getId();
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringConnection = (StringRedisConnection) connection;
+				stringConnection.pExpire(userKey, ttlMillis);
+				stringConnection.zAdd(tokensKey, now + ttlMillis, token);
+				stringConnection.pExpire(tokensKey, ttlMillis);
+				return null;
+			});
+			session.expireAt = now + ttlMillis;
+		}
+		return session.user;
+	}
+
+	/**
+	 * Redis中的会话在get时已经续期，token不变
+	 */
+	@Override
+	public String renew(String token) {
+		return null;
+	}
+
+	/**
+	 * 删除登录会话，从用户的token索引中移除，并通知所有节点删除本地缓存
+	 */
+	@Override
+	public void invalidate(String token) {
+		// 优先从本地缓存获取用户ID，未命中时查询Redis，会话已过期时只需要通知各节点
+		Session session = sessionCache.getIfPresent(token);
+		Object userId = session != null ? session.user.getId()
+				: stringRedisTemplate.opsForHash().get(RedisConstants.LOGIN_USER_KEY + token, "id");
+		removeSessions(userId == null ? null : RedisConstants.LOGIN_USER_TOKENS_KEY + userId, Collections.singleton(token));
+	}
+
+	/**
+	 * 通过管道一次删除用户的所有会话和token索引
+	 */
+	@Override
+	public int invalidateAll(Long userId) {
+		String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userId;
+		Set<String> tokens = stringRedisTemplate.opsForZSet().range(tokensKey, 0, -1);
+		if (tokens == null || tokens.isEmpty()) {
+			return 0;
+		}
+		removeSessions(tokensKey, tokens);
+		return tokens.size();
+	}
+
+	/**
+	 * 通过管道删除会话、从token索引中移除，并通知所有节点删除本地缓存
+	 *
+	 * @param tokensKey 用户的token索引，为null时不需要移除
+	 * @param tokens    要删除的token
+	 */
+	private void removeSessions(String tokensKey, Collection<String> tokens) {
+		if (tokens == null || tokens.isEmpty()) {
+			return;
+		}
+		String[] tokenArray = tokens.toArray(new String[0]);
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (String token : tokenArray) {
+				stringConnection.del(RedisConstants.LOGIN_USER_KEY + token);
+				stringConnection.publish(RedisConstants.LOGIN_SESSION_CHANNEL, token);
+			}
+			if (tokensKey != null) {
+				stringConnection.zRem(tokensKey, tokenArray);
+			}
+			return null;
+		});
+		sessionCache.invalidateAll(tokens);
+	}
+
+	/**
+	 * 本地缓存的会话数和命中率
+	 */
+	@Override
+	public Map<String, Object> stats() {
+		CacheStats stats = sessionCache.stats();
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		statsMap.put("mode", "redis");
+		statsMap.put("size", sessionCache.estimatedSize());
+		statsMap.put("hitCount", stats.hitCount());
+		statsMap.put("missCount", stats.missCount());
+		statsMap.put("hitRate", stats.hitRate());
+		return statsMap;
+	}
+
+	/**
+	 * 收到其他节点的登出通知，删除本地缓存
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		sessionCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 本地缓存的会话
+	 */
+	private static class Session {
+		private final UserDTO user;
+		/**
+		 * Redis中会话的过期时间（毫秒），续期后更新
+		 */
+		private volatile long expireAt;
+
+		private Session(UserDTO user, long expireAt) {
+			this.user = user;
+			this.expireAt = expireAt;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ReUtil;
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.*;
+import com.hmdp.dto.RowChangeDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 以从库身份订阅MySQL binlog（需要ROW格式），按事务回调已提交的行变更，消费位置保存在Redis中，重启后继续消费
+ * 只有所有订阅者确认处理完成的事务才会保存消费位置，宕机或处理失败后从最后确认的位置重新回调；启动时连接失败直接报错
+ * @author: Mr.Ye
+ * @create: 2026-10-18 22:20
+ **/
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.cdc.enabled", havingValue = "true")
+public class MysqlBinlogReader implements IBinlogReader {
+
+	private final StringRedisTemplate stringRedisTemplate;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final List<BiConsumer<List<RowChangeDTO>, Runnable>> listenerList = new CopyOnWriteArrayList<>();
+
+	@Value("${spring.datasource.url}")
+	private String url;
+
+	@Value("${spring.datasource.username}")
+	private String username;
+
+	@Value("${spring.datasource.password}")
+	private String password;
+
+	/**
+	 * 从库ID，多个节点同时订阅时必须不同
+	 */
+	@Value("${hmdp.cdc.server-id:65535}")
+	private long serverId;
+
+	/**
+	 * 订阅的表
+	 */
+	@Value("${hmdp.cdc.tables:tb_shop}")
+	private Set<String> tables;
+
+	private static final Pattern JDBC_URL_PATTERN = Pattern.compile("//([^:/]+)(?::(\\d+))?/([^?]+)");
+
+	/**
+	 * 连接超时时间（毫秒）
+	 */
+	private static final long CONNECT_TIMEOUT = 10000L;
+
+	private BinaryLogClient client;
+
+	private String database;
+
+	/**
+	 * binlog中的表ID -> 表名，只记录订阅的表
+	 */
+	private final Map<Long, String> tableIdMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 表名 -> 按顺序的列名
+	 */
+	private final Map<String, List<String>> columnMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 当前事务中的行变更，只在binlog读取线程中访问
+	 */
+	private List<RowChangeDTO> transactionRowList = new ArrayList<>();
+
+	/**
+	 * 已回调、按提交顺序等待确认的事务，队首的事务全部确认后才保存消费位置
+	 */
+	private final Deque<PendingTransaction> pendingQueue = new ArrayDeque<>();
+
+	public MysqlBinlogReader(StringRedisTemplate stringRedisTemplate, JdbcTemplate jdbcTemplate) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	@Override
+	public void subscribe(BiConsumer<List<RowChangeDTO>, Runnable> listener) {
+		listenerList.add(listener);
+	}
+
+	@Override
+	public boolean isConnected() {
+		return client != null && client.isConnected();
+	}
+
+	@PostConstruct
+	private void start() {
+		// 1. 解析数据库地址：jdbc:mysql://host:port/database?...
+		List<String> groups = ReUtil.getAllGroups(JDBC_URL_PATTERN, url);
+		if (groups.isEmpty()) {
+			throw new IllegalStateException("无法解析数据库地址：" + url);
+		}
+		String host = groups.get(1);
+		int port = groups.get(2) == null ? 3306 : Integer.parseInt(groups.get(2));
+		database = groups.get(3);
+		// 2. 查询订阅表的列名，binlog中只有列的顺序
+		for (String table : tables) {
+			columnMap.put(table, jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns " +
+					"WHERE table_schema = ? AND table_name = ? ORDER BY ordinal_position", String.class, database, table));
+		}
+		// 3. 从上次的消费位置开始订阅
+		client = new BinaryLogClient(host, port, username, password);
+		client.setServerId(serverId);
+		client.setThreadFactory(ThreadUtil.newNamedThreadFactory("binlog-reader-", true));
+		Map<Object, Object> position = stringRedisTemplate.opsForHash().entries(RedisConstants.CDC_POSITION_KEY + serverId);
+		if (!position.isEmpty()) {
+			client.setBinlogFilename((String) position.get("file"));
+			client.setBinlogPosition(Long.parseLong((String) position.get("position")));
+		}
+		client.registerEventListener(this::onEvent);
+		// 4. 开启CDC时不再在更新后删除缓存，连接失败直接启动失败，避免缓存不再刷新；断线后由客户端自动重连
+		try {
+			client.connect(CONNECT_TIMEOUT);
+		} catch (Exception e) {
+			throw new IllegalStateException("订阅binlog失败！", e);
+		}
+		log.info("订阅binlog成功！文件：{}，位置：{}", client.getBinlogFilename(), client.getBinlogPosition());
+	}
+
+	@PreDestroy
+	private void stop() throws IOException {
+		if (client != null) {
+			client.disconnect();
+		}
+	}
+
+	private void onEvent(Event event) {
+		EventType eventType = event.getHeader().getEventType();
+		if (eventType == EventType.TABLE_MAP) {
+			TableMapEventData data = event.getData();
+			if (database.equals(data.getDatabase()) && tables.contains(data.getTable())) {
+				tableIdMap.put(data.getTableId(), data.getTable());
+			}
+		} else if (EventType.isWrite(eventType)) {
+			WriteRowsEventData data = event.getData();
+			String table = tableIdMap.get(data.getTableId());
+			if (table != null) {
+				for (Serializable[] row : data.getRows()) {
+					transactionRowList.add(new RowChangeDTO(table, RowChangeDTO.INSERT, null, toMap(table, row)));
+				}
+			}
+		} else if (EventType.isUpdate(eventType)) {
+			UpdateRowsEventData data = event.getData();
+			String table = tableIdMap.get(data.getTableId());
+			if (table != null) {
+				for (Map.Entry<Serializable[], Serializable[]> row : data.getRows()) {
+					transactionRowList.add(new RowChangeDTO(table, RowChangeDTO.UPDATE, toMap(table, row.getKey()),
+							toMap(table, row.getValue())));
+				}
+			}
+		} else if (EventType.isDelete(eventType)) {
+			DeleteRowsEventData data = event.getData();
+			String table = tableIdMap.get(data.getTableId());
+			if (table != null) {
+				for (Serializable[] row : data.getRows()) {
+					transactionRowList.add(new RowChangeDTO(table, RowChangeDTO.DELETE, toMap(table, row), null));
+				}
+			}
+		} else if (eventType == EventType.XID) {
+			// 事务提交，回调本事务的行变更，所有订阅者确认后再记录消费位置
+			List<RowChangeDTO> rowChangeList = transactionRowList;
+			transactionRowList = new ArrayList<>();
+			int listenerCount = rowChangeList.isEmpty() ? 0 : listenerList.size();
+			PendingTransaction transaction = new PendingTransaction(client.getBinlogFilename(),
+					((EventHeaderV4) event.getHeader()).getNextPosition(), listenerCount);
+			synchronized (pendingQueue) {
+				pendingQueue.addLast(transaction);
+			}
+			if (listenerCount == 0) {
+				acknowledge(transaction);
+				return;
+			}
+			for (BiConsumer<List<RowChangeDTO>, Runnable> listener : listenerList) {
+				// 订阅者抛出异常时不确认，重启后从上次确认的位置重新回调
+				listener.accept(rowChangeList, () -> acknowledge(transaction));
+			}
+		}
+	}
+
+	/**
+	 * 订阅者确认事务，队首连续已确认的事务出队，保存最后一个事务的位置
+	 *
+	 * @param transaction 事务
+	 */
+	private void acknowledge(PendingTransaction transaction) {
+		PendingTransaction lastDone = null;
+		synchronized (pendingQueue) {
+			if (transaction.remaining > 0) {
+				transaction.remaining--;
+			}
+			while (!pendingQueue.isEmpty() && pendingQueue.peekFirst().remaining == 0) {
+				lastDone = pendingQueue.pollFirst();
+			}
+		}
+		if (lastDone == null) {
+			return;
+		}
+		Map<String, String> position = new HashMap<>(2);
+		position.put("file", lastDone.file);
+		position.put("position", String.valueOf(lastDone.position));
+		try {
+			stringRedisTemplate.opsForHash().putAll(RedisConstants.CDC_POSITION_KEY + serverId, position);
+		} catch (Exception e) {
+			// 下次确认时会保存更新的位置
+			log.error("保存binlog消费位置失败！", e);
+		}
+	}
+
+	private Map<String, Serializable> toMap(String table, Serializable[] row) {
+		List<String> columnList = columnMap.get(table);
+		Map<String, Serializable> rowMap = new HashMap<>(columnList.size() * 2);
+		for (int i = 0; i < row.length && i < columnList.size(); i++) {
+			rowMap.put(columnList.get(i), row[i]);
+		}
+		return rowMap;
+	}
+
+	/**
+	 * 等待订阅者确认的事务
+	 */
+	private static class PendingTransaction {
+		private final String file;
+		/**
+		 * 下一个事件的位置，即确认后保存的消费位置
+		 */
+		private final long position;
+		/**
+		 * 还没有确认的订阅者数，只在持有pendingQueue的锁时访问
+		 */
+		private int remaining;
+
+		private PendingTransaction(String file, long position, int remaining) {
+			this.file = file;
+			this.position = position;
+			this.remaining = remaining;
+		}
+	}
+}
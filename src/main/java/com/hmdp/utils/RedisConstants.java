@@ -5,25 +5,88 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "hmdp:login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final Long LOGIN_USER_LOCAL_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_THRESHOLD = 20L;
+    public static final String LOGIN_SESSION_CHANNEL = "hmdp:login:session:channel";
+    public static final String LOGIN_REVOKED_KEY = "hmdp:login:revoked";
+    public static final String LOGIN_USER_TOKENS_KEY = "hmdp:login:user:tokens:";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "hmdp:cache:shop:";
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
+
+    public static final String CACHE_WARM_UP_KEY = "hmdp:cache:warmup:";
+    public static final String LOCK_WARM_UP_KEY = "hmdp:lock:warmup:";
+    public static final Long LOCK_WARM_UP_TTL = 10L;
+
+    public static final String CDC_POSITION_KEY = "hmdp:cdc:position:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "hmdp:cache:invalidate:channel";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "hmdp:cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "hmdp:cache:blog:";
+
+    public static final String BLOOM_KEY = "hmdp:bloom:";
+    public static final String BLOOM_LOCK_KEY = "hmdp:bloom:lock:";
+    public static final Long BLOOM_LOCK_TTL = 10L;
+    public static final String BLOOM_ADD_CHANNEL = "hmdp:bloom:add:channel";
 
     public static final String LOCK_SHOP_KEY = "hmdp:lock:shop:";
     public static final String LOCK_SHOP_VALUE = "hmdp:lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String LOCK_SECKILL_SHARD_KEY = "hmdp:lock:seckill:shard:";
+    public static final Long LOCK_SECKILL_SHARD_TTL = 60L;
+
     public static final String SECKILL_STOCK_KEY = "hmdp:seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "hmdp:seckill:order:";
+    public static final String SECKILL_SHARD_KEY = "hmdp:seckill:shard:";
+    public static final String SECKILL_STOCK_CHANNEL = "hmdp:seckill:stock:channel";
+    public static final Long SECKILL_SOLD_OUT_TTL = 60L;
     public static final String STREAM_ORDER_KEY = "hmdp:stream.orders";
+    public static final String STREAM_ORDER_GROUP = "g1";
+    public static final String STREAM_ORDER_DEAD_KEY = "hmdp:stream.orders.dead";
+    public static final String STREAM_ORDER_SHARDS_KEY = "hmdp:stream.orders.shards";
+    public static final String STREAM_ORDER_RETIRED_KEY = "hmdp:stream.orders.retired";
+    public static final Long STREAM_CONSUMER_IDLE_TTL = 3600000L;
+    public static final String STREAM_FEED_KEY = "hmdp:stream.feed";
+    public static final String STREAM_FEED_GROUP = "g1";
+
+    public static final String ID_NODE_KEY = "hmdp:id:node:";
+    public static final Long ID_NODE_TTL = 60L;
+    public static final long ID_NODE_RENEW_INTERVAL = 20000L;
 
     public static final String BLOG_LIKED_KEY = "hmdp:blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "hmdp:blog:likes:delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "hmdp:blog:likes:flushing";
+    public static final String BLOG_LIKED_FLUSH_ID_KEY = "hmdp:blog:likes:flushing:id";
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "hmdp:lock:blog:liked:flush";
+    public static final Long LOCK_BLOG_LIKED_FLUSH_TTL = 60L;
+    public static final String BLOG_LIKERS_KEY = "hmdp:blog:likers:";
+    public static final Long BLOG_LIKERS_TTL = 30L;
+    public static final String BLOG_HOT_KEY = "hmdp:blog:hot";
+    public static final String BLOG_HOT_EPOCH_KEY = "hmdp:blog:hot:epoch";
+    public static final String BLOG_HOT_BUILDING_KEY = "hmdp:blog:hot:building";
+    public static final String LOCK_BLOG_HOT_KEY = "hmdp:lock:blog:hot";
+    public static final Long LOCK_BLOG_HOT_TTL = 600L;
     public static final String FOLLOW_KEY = "hmdp:follow:";
     public static final String FEED_KEY = "hmdp:feed:";
+    public static final String FEED_FANOUT_KEY = "hmdp:feed:fanout:";
+    public static final String FEED_OUTBOX_KEY = "hmdp:feed:outbox:";
+    public static final String FEED_BIG_AUTHOR_KEY = "hmdp:feed:big:authors";
+    public static final Long FEED_FANOUT_TTL = 86400L;
     public static final String SHOP_GEO_KEY = "hmdp:shop:geo:";
     public static final String USER_SIGN_KEY = "hmdp:sign:";
+    public static final String USER_SIGN_USERS_KEY = "hmdp:sign:users:";
+    public static final String USER_SIGN_ARCHIVED_KEY = "hmdp:sign:archived:";
+    public static final Long USER_SIGN_ARCHIVED_TTL = 100L;
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "hmdp:lock:sign:archive";
+    public static final Long LOCK_SIGN_ARCHIVE_TTL = 600L;
 
     public static final String CACHE_SHOP_TYPE_KEY = "hmdp:shop:shoptype";
 }
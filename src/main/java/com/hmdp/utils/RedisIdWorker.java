@@ -1,12 +1,20 @@
 package com.hmdp.utils;
 
-import lombok.AllArgsConstructor;
+import cn.hutool.core.thread.ThreadUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @program: hm-dianping-backend
@@ -15,22 +23,174 @@ import java.time.format.DateTimeFormatter;
  * @create: 2023-02-12 22:54
  **/
 @Component
-@AllArgsConstructor
-public class RedisIdWorker {
+public class RedisIdWorker implements IIdWorker {
 
-	private StringRedisTemplate stringRedisTemplate;
+	private final StringRedisTemplate stringRedisTemplate;
 
 	public static final int COUNT_BITS = 32;
 
+	public static final long SECONDS_PER_DAY = 86400L;
+
+	public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+	/**
+	 * 号段预取线程
+	 */
+	private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR =
+			Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("id-segment-prefetch-", true));
+
+	/**
+	 * 号段大小，小于等于1时每次生成ID都INCR一次Redis
+	 */
+	private final int segmentSize;
+
+	/**
+	 * 当前号段剩余多少个序列号时预取下一个号段
+	 */
+	private final int prefetchThreshold;
+
+	/**
+	 * 业务前缀 -> 号段缓冲
+	 */
+	private final Map<String, SegmentBuffer> segmentBufferMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 最近一次使用的日期，避免每次都格式化日期字符串
+	 */
+	private volatile DayKey lastDayKey = new DayKey(Long.MIN_VALUE, null);
+
+	@Autowired
+	public RedisIdWorker(StringRedisTemplate stringRedisTemplate, @Value("${hmdp.id.segment-size:1}") int segmentSize) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		this.segmentSize = segmentSize;
+		this.prefetchThreshold = segmentSize / 5;
+	}
+
+	@Override
 	public Long nextId(String keyPrefix) {
 		// 1. 生成时间戳：当前时间的秒数
-		long timestamp = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
-		// 2. 生成序列号：利用redis自增
-		// 2.1 获取当天日期，精确到天
-		String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-		// 2.2 自增长
-		Long count = stringRedisTemplate.opsForValue().increment("incr:" + keyPrefix + ":" + date);
+		long timestamp = currentSecond();
+		long epochDay = Math.floorDiv(timestamp, SECONDS_PER_DAY);
+		// 2. 生成序列号
+		long count;
+		if (segmentSize <= 1) {
+			// 2.1 利用redis自增
+			count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, epochDay));
+		} else {
+			// 2.2 从本地号段中分配
+			count = segmentBufferMap.computeIfAbsent(keyPrefix, SegmentBuffer::new).nextCount(epochDay);
+		}
 		// 3. 拼接返回
 		return timestamp << COUNT_BITS | count;
 	}
+
+	/**
+	 * 当前时间的秒数，与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 一致，以本地时间计
+	 */
+	static long currentSecond() {
+		long now = System.currentTimeMillis();
+		return Math.floorDiv(now + TimeZone.getDefault().getOffset(now), 1000L);
+	}
+
+	/**
+	 * Redis自增key：incr:业务前缀:yyyy:MM:dd，按天划分
+	 */
+	private String counterKey(String keyPrefix, long epochDay) {
+		DayKey dayKey = lastDayKey;
+		if (dayKey.epochDay != epochDay) {
+			dayKey = new DayKey(epochDay, LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER));
+			lastDayKey = dayKey;
+		}
+		return "incr:" + keyPrefix + ":" + dayKey.date;
+	}
+
+	/**
+	 * 向Redis申请一个号段 INCRBY key segmentSize
+	 */
+	private IdSegment allocate(String keyPrefix, long epochDay) {
+		Long max = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, epochDay), segmentSize);
+		return new IdSegment(epochDay, max - segmentSize + 1, max);
+	}
+
+	private static class DayKey {
+		private final long epochDay;
+		private final String date;
+
+		private DayKey(long epochDay, String date) {
+			this.epochDay = epochDay;
+			this.date = date;
+		}
+	}
+
+	/**
+	 * 号段：某一天内[min, max]范围的序列号，各节点通过INCRBY拿到的号段互不重叠
+	 */
+	private static class IdSegment {
+		private final long epochDay;
+		private final long min;
+		private final long max;
+		private final AtomicLong cursor;
+
+		private IdSegment(long epochDay, long min, long max) {
+			this.epochDay = epochDay;
+			this.min = min;
+			this.max = max;
+			this.cursor = new AtomicLong(min);
+		}
+	}
+
+	/**
+	 * 单个业务的双号段缓冲：当前号段用到剩余prefetchThreshold个时，后台线程预取下一个号段
+	 */
+	private class SegmentBuffer {
+		private final String keyPrefix;
+		private volatile IdSegment current;
+		private volatile IdSegment next;
+		private final AtomicBoolean loading = new AtomicBoolean(false);
+
+		private SegmentBuffer(String keyPrefix) {
+			this.keyPrefix = keyPrefix;
+		}
+
+		private long nextCount(long epochDay) {
+			while (true) {
+				IdSegment segment = current;
+				// 号段必须属于当天，跨天后序列号从新一天的计数器重新申请，避免与其他节点冲突
+				if (segment != null && segment.epochDay == epochDay) {
+					long count = segment.cursor.getAndIncrement();
+					if (count <= segment.max) {
+						if (segment.max - count == prefetchThreshold) {
+							prefetch(epochDay);
+						}
+						return count;
+					}
+				}
+				synchronized (this) {
+					if (current != segment) {
+						// 其他线程已切换号段
+						continue;
+					}
+					IdSegment nextSegment = next;
+					next = null;
+					// 预取的号段必须属于当天且在当前号段之后，保证本节点生成的ID单调递增
+					boolean usable = nextSegment != null && nextSegment.epochDay == epochDay
+							&& (segment == null || nextSegment.min > segment.max);
+					current = usable ? nextSegment : allocate(keyPrefix, epochDay);
+				}
+			}
+		}
+
+		private void prefetch(long epochDay) {
+			if (next != null || !loading.compareAndSet(false, true)) {
+				return;
+			}
+			SEGMENT_PREFETCH_EXECUTOR.execute(() -> {
+				try {
+					next = allocate(keyPrefix, epochDay);
+				} finally {
+					loading.set(false);
+				}
+			});
+		}
+	}
 }
@@ -1,15 +1,11 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @program: hm-dianping
@@ -19,30 +15,31 @@ import java.util.concurrent.TimeUnit;
  **/
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-	private StringRedisTemplate stringRedisTemplate;
+	private ILoginSessionManager loginSessionManager;
 
-	public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-		this.stringRedisTemplate = stringRedisTemplate;
+	public RefreshTokenInterceptor(ILoginSessionManager loginSessionManager) {
+		this.loginSessionManager = loginSessionManager;
 	}
 
 	@Override
 	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-		// 1. 获取Redis中的用户
+		// 1. 获取用户，Redis会话优先查询本地缓存，签名token只在可能已登出时查询Redis
 		String token = request.getHeader(SystemConstants.AUTHORIZATION);
 		if (StrUtil.isBlank(token)) {
 			return true;
 		}
-		String userKey = RedisConstants.LOGIN_USER_KEY + token;
-		Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(userKey);
+		UserDTO userDTO = loginSessionManager.get(token);
 		// 2. 判断用户是否存在，不存在则放行
-		if (userMap.isEmpty()) {
+		if (userDTO == null) {
 			return true;
 		}
-		UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
 		// 3. 用户存在，保存在ThreadLocal中
 		UserHolder.saveUser(userDTO);
-		// 4. 刷新token有效期
-		stringRedisTemplate.expire(userKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+		// 4. 续期，签名token续期后通过响应头返回新token
+		String newToken = loginSessionManager.renew(token);
+		if (newToken != null) {
+			response.setHeader(SystemConstants.AUTHORIZATION, newToken);
+		}
 		// 5. 放行
 		return true;
 	}
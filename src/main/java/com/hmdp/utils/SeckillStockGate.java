@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 秒杀库存本地闸门，记录本节点已知售罄的优惠券，售罄后的请求无需再访问Redis
+ * @author: Mr.Ye
+ * @create: 2026-10-18 10:12
+ **/
+@Slf4j
+@Component
+public class SeckillStockGate implements MessageListener {
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * 售罄标记：优惠券ID -> 标记失效的时间戳（毫秒），失效后放行一次请求到Redis重新确认库存
+	 */
+	private final Map<Long, Long> soldOutMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 判断优惠券是否已售罄
+	 *
+	 * @param voucherId 优惠券ID
+	 * @return 是否售罄
+	 */
+	public boolean isSoldOut(Long voucherId) {
+		Long expireAt = soldOutMap.get(voucherId);
+		if (expireAt == null) {
+			return false;
+		}
+		if (expireAt > System.currentTimeMillis()) {
+			return true;
+		}
+		// 标记已失效，移除后由下一次请求到Redis确认
+		soldOutMap.remove(voucherId, expireAt);
+		return false;
+	}
+
+	/**
+	 * 标记优惠券已售罄
+	 *
+	 * @param voucherId 优惠券ID
+	 */
+	public void markSoldOut(Long voucherId) {
+		soldOutMap.put(voucherId, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RedisConstants.SECKILL_SOLD_OUT_TTL));
+	}
+
+	/**
+	 * 库存补充后通知所有节点清除售罄标记 PUBLISH channel voucherId
+	 *
+	 * @param voucherId 优惠券ID
+	 */
+	public void publishStockChanged(Long voucherId) {
+		soldOutMap.remove(voucherId);
+		stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_STOCK_CHANNEL, voucherId.toString());
+	}
+
+	/**
+	 * 收到库存补充消息，清除本地售罄标记
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String voucherId = new String(message.getBody(), StandardCharsets.UTF_8);
+		try {
+			soldOutMap.remove(Long.valueOf(voucherId));
+		} catch (NumberFormatException e) {
+			log.error("库存补充消息格式错误：{}", voucherId);
+		}
+	}
+}
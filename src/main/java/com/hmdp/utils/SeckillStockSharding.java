@@ -0,0 +1,376 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 秒杀库存分片，把一个优惠券的库存拆分到多个带hash tag的key上，分散热点key
+ * 每次分片生成新的一代key：hmdp:seckill:*:{voucherId:代数:分片}，库存、订单和Stream队列使用同一个hash tag，
+ * 分片布局 hmdp:seckill:shard:voucherId = 代数:分片数，新一代key写好后一次SET切换布局，旧一代的key随后清除
+ * @author: Mr.Ye
+ * @create: 2026-10-18 14:20
+ **/
+@Slf4j
+@Component
+public class SeckillStockSharding implements MessageListener {
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	public static final DefaultRedisScript<Long> SHARD_SCRIPT;
+
+	static {
+		SHARD_SCRIPT = new DefaultRedisScript<>();
+		SHARD_SCRIPT.setLocation(new ClassPathResource("seckillShard.lua"));
+		SHARD_SCRIPT.setResultType(Long.class);
+	}
+
+	/**
+	 * 迁移订单时每批写入的用户数
+	 */
+	private static final int MIGRATE_BATCH_SIZE = 1000;
+
+	/**
+	 * 本地缓存的订单Stream队列key的有效期（毫秒）
+	 */
+	private static final long STREAM_KEYS_TTL = 5000L;
+
+	/**
+	 * 本地缓存的分片布局：优惠券ID -> 分片布局，重新分片时通过库存变更消息清除
+	 */
+	private final Map<Long, ShardLayout> layoutMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 本地缓存的订单Stream队列key：全局队列和所有分片队列
+	 */
+	private volatile List<String> orderStreamKeys;
+
+	private volatile long orderStreamKeysExpireAt;
+
+	/**
+	 * 分片布局，未分片的优惠券分片数为1，使用不带hash tag的库存和订单key
+	 */
+	private static final class ShardLayout {
+
+		private final long generation;
+
+		private final int count;
+
+		private ShardLayout(long generation, int count) {
+			this.generation = generation;
+			this.count = count;
+		}
+
+		private static ShardLayout parse(String value) {
+			if (value == null) {
+				return new ShardLayout(0, 1);
+			}
+			int index = value.indexOf(':');
+			return new ShardLayout(Long.parseLong(value.substring(0, index)), Integer.parseInt(value.substring(index + 1)));
+		}
+
+		@Override
+		public String toString() {
+			return generation + ":" + count;
+		}
+	}
+
+	/**
+	 * 库存分片key：hmdp:seckill:stock:{voucherId:generation:shard}
+	 */
+	public static String stockShardKey(Long voucherId, long generation, int shard) {
+		return RedisConstants.SECKILL_STOCK_KEY + hashTag(voucherId, generation, shard);
+	}
+
+	/**
+	 * 订单分片key：hmdp:seckill:order:{voucherId:generation:shard}，与同一分片的库存key落在同一个slot
+	 */
+	public static String orderShardKey(Long voucherId, long generation, int shard) {
+		return RedisConstants.SECKILL_ORDER_KEY + hashTag(voucherId, generation, shard);
+	}
+
+	/**
+	 * 订单Stream队列分片key：hmdp:stream.orders:{voucherId:generation:shard}，与同一分片的库存key落在同一个slot
+	 */
+	public static String streamShardKey(Long voucherId, long generation, int shard) {
+		return RedisConstants.STREAM_ORDER_KEY + ":" + hashTag(voucherId, generation, shard);
+	}
+
+	private static String hashTag(Long voucherId, long generation, int shard) {
+		return "{" + voucherId + ":" + generation + ":" + shard + "}";
+	}
+
+	private static String stockKey(Long voucherId, ShardLayout layout, int shard) {
+		return layout.count > 1 ? stockShardKey(voucherId, layout.generation, shard) : RedisConstants.SECKILL_STOCK_KEY + voucherId;
+	}
+
+	private static String orderKey(Long voucherId, ShardLayout layout, int shard) {
+		return layout.count > 1 ? orderShardKey(voucherId, layout.generation, shard) : RedisConstants.SECKILL_ORDER_KEY + voucherId;
+	}
+
+	private static String streamKey(Long voucherId, ShardLayout layout, int shard) {
+		return layout.count > 1 ? streamShardKey(voucherId, layout.generation, shard) : RedisConstants.STREAM_ORDER_KEY;
+	}
+
+	/**
+	 * 初始化或重新分片库存：把库存均匀拆分到新一代分片，余数分给前面的分片，保证分片库存之和等于总库存
+	 * 1. 写入新一代的库存，创建分片Stream队列和消费者组；2. 把旧布局的下单用户迁移到新布局的所属分片；
+	 * 3. 一次SET切换布局并通知各节点；4. 删除旧一代的库存，再迁移一次切换期间下单的用户，删除旧一代的订单key，
+	 * 旧一代的Stream队列消费完后由 cleanRetiredStreams 删除
+	 *
+	 * @param voucherId  优惠券ID
+	 * @param stock      重新分配的总库存
+	 * @param shardCount 分片数，小于等于1时不分片
+	 */
+	public void initStock(Long voucherId, int stock, int shardCount) {
+		String lockKey = RedisConstants.LOCK_SECKILL_SHARD_KEY + voucherId;
+		if (!BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1",
+				RedisConstants.LOCK_SECKILL_SHARD_TTL, TimeUnit.SECONDS))) {
+			throw new IllegalStateException("优惠券正在重新分片！优惠券ID：" + voucherId);
+		}
+		try {
+			String layoutKey = RedisConstants.SECKILL_SHARD_KEY + voucherId;
+			ShardLayout oldLayout = ShardLayout.parse(stringRedisTemplate.opsForValue().get(layoutKey));
+			ShardLayout newLayout = new ShardLayout(oldLayout.generation + 1, Math.max(shardCount, 1));
+			// 1. 写入新一代的库存，分片的Stream队列登记后由消费者读取
+			for (int i = 0; i < newLayout.count; i++) {
+				int shardStock = stock / newLayout.count + (i < stock % newLayout.count ? 1 : 0);
+				stringRedisTemplate.opsForValue().set(stockKey(voucherId, newLayout, i), String.valueOf(shardStock));
+				if (newLayout.count > 1) {
+					createStreamGroup(streamKey(voucherId, newLayout, i));
+				}
+			}
+			// 2. 新旧布局都不分片时key相同，直接覆盖库存即可
+			boolean sameKeys = oldLayout.count == 1 && newLayout.count == 1;
+			if (!sameKeys) {
+				migrateOrders(voucherId, oldLayout, newLayout);
+			}
+			// 3. 切换布局
+			stringRedisTemplate.opsForValue().set(layoutKey, newLayout.toString());
+			layoutMap.remove(voucherId);
+			stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_STOCK_CHANNEL, voucherId.toString());
+			if (sameKeys) {
+				return;
+			}
+			// 4. 删除旧一代的库存后，旧布局上的下单都会因库存不足失败，再迁移一次切换期间下单的用户
+			List<String> oldStockKeys = new ArrayList<>(oldLayout.count);
+			List<String> oldOrderKeys = new ArrayList<>(oldLayout.count);
+			for (int i = 0; i < oldLayout.count; i++) {
+				oldStockKeys.add(stockKey(voucherId, oldLayout, i));
+				oldOrderKeys.add(orderKey(voucherId, oldLayout, i));
+				if (oldLayout.count > 1) {
+					stringRedisTemplate.opsForSet().add(RedisConstants.STREAM_ORDER_RETIRED_KEY, streamKey(voucherId, oldLayout, i));
+				}
+			}
+			stringRedisTemplate.delete(oldStockKeys);
+			migrateOrders(voucherId, oldLayout, newLayout);
+			stringRedisTemplate.delete(oldOrderKeys);
+		} finally {
+			stringRedisTemplate.delete(lockKey);
+		}
+	}
+
+	/**
+	 * 创建分片Stream队列的消费者组并登记，Stream不存在时自动创建，消费者组已存在时忽略
+	 *
+	 * @param streamKey Stream队列key
+	 */
+	private void createStreamGroup(String streamKey) {
+		try {
+			stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), RedisConstants.STREAM_ORDER_GROUP);
+		} catch (Exception e) {
+			log.debug("订单消费者组已存在：{}", e.getMessage());
+		}
+		stringRedisTemplate.opsForSet().add(RedisConstants.STREAM_ORDER_SHARDS_KEY, streamKey);
+		orderStreamKeys = null;
+	}
+
+	/**
+	 * 把旧布局各分片的下单用户迁移到新布局的所属分片，保证重新分片后一人一单仍然有效
+	 *
+	 * @param voucherId 优惠券ID
+	 * @param oldLayout 旧布局
+	 * @param newLayout 新布局
+	 */
+	private void migrateOrders(Long voucherId, ShardLayout oldLayout, ShardLayout newLayout) {
+		for (int i = 0; i < oldLayout.count; i++) {
+			List<String> userIds = new ArrayList<>(MIGRATE_BATCH_SIZE);
+			try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(orderKey(voucherId, oldLayout, i),
+					ScanOptions.scanOptions().count(MIGRATE_BATCH_SIZE).build())) {
+				while (cursor.hasNext()) {
+					userIds.add(cursor.next());
+					if (userIds.size() >= MIGRATE_BATCH_SIZE) {
+						addOrders(voucherId, newLayout, userIds);
+						userIds.clear();
+					}
+				}
+			}
+			addOrders(voucherId, newLayout, userIds);
+		}
+	}
+
+	private void addOrders(Long voucherId, ShardLayout layout, List<String> userIds) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (String userId : userIds) {
+				int shard = (int) (Long.parseLong(userId) % layout.count);
+				stringConnection.sAdd(orderKey(voucherId, layout, shard), userId);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 查询优惠券的库存分片数，未分片的优惠券返回1
+	 *
+	 * @param voucherId 优惠券ID
+	 * @return 分片数
+	 */
+	public int getShardCount(Long voucherId) {
+		return getLayout(voucherId).count;
+	}
+
+	private ShardLayout getLayout(Long voucherId) {
+		return layoutMap.computeIfAbsent(voucherId, id ->
+				ShardLayout.parse(stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARD_KEY + id)));
+	}
+
+	/**
+	 * 分片秒杀：本地缓存的布局已经切换时，旧布局的库存已删除，刷新布局后重试一次
+	 *
+	 * @param voucherId 优惠券ID
+	 * @param userId    用户ID
+	 * @param orderId   订单ID
+	 * @return 0：成功，1：库存不足，2：重复下单
+	 */
+	public Long seckill(Long voucherId, Long userId, Long orderId) {
+		ShardLayout layout = getLayout(voucherId);
+		Long result = seckill(voucherId, userId, orderId, layout);
+		if (result != null && result == 1) {
+			String current = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARD_KEY + voucherId);
+			if (!layout.toString().equals(String.valueOf(ShardLayout.parse(current)))) {
+				layoutMap.remove(voucherId);
+				result = seckill(voucherId, userId, orderId, getLayout(voucherId));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 先在用户所属分片（userId取模）判断一人一单并扣减库存，所属分片库存不足时依次向相邻分片借库存，
+	 * 订单写入扣减库存的分片的Stream队列
+	 */
+	private Long seckill(Long voucherId, Long userId, Long orderId, ShardLayout layout) {
+		int shardCount = layout.count;
+		int home = (int) (userId % shardCount);
+		// 1. 用户所属分片
+		Long result = stringRedisTemplate.execute(
+				SHARD_SCRIPT,
+				Arrays.asList(stockKey(voucherId, layout, home), streamKey(voucherId, layout, home), orderKey(voucherId, layout, home)),
+				voucherId.toString(), userId.toString(), orderId.toString()
+		);
+		if (result == null || result != 3) {
+			return result;
+		}
+		// 2. 所属分片库存不足，用户已占位，依次向相邻分片借库存
+		for (int i = 1; i < shardCount; i++) {
+			int shard = (home + i) % shardCount;
+			result = stringRedisTemplate.execute(
+					SHARD_SCRIPT,
+					Arrays.asList(stockKey(voucherId, layout, shard), streamKey(voucherId, layout, shard)),
+					voucherId.toString(), userId.toString(), orderId.toString()
+			);
+			if (result != null && result == 0) {
+				return result;
+			}
+		}
+		// 3. 所有分片库存不足，释放一人一单占位
+		stringRedisTemplate.opsForSet().remove(orderKey(voucherId, layout, home), userId.toString());
+		return 1L;
+	}
+
+	/**
+	 * 查询所有订单Stream队列key：全局队列和所有分片队列，本地缓存一段时间
+	 *
+	 * @return Stream队列key，全局队列在第一个
+	 */
+	public List<String> getOrderStreamKeys() {
+		List<String> streamKeys = orderStreamKeys;
+		if (streamKeys != null && System.currentTimeMillis() < orderStreamKeysExpireAt) {
+			return streamKeys;
+		}
+		streamKeys = new ArrayList<>();
+		streamKeys.add(RedisConstants.STREAM_ORDER_KEY);
+		Set<String> shardKeys = stringRedisTemplate.opsForSet().members(RedisConstants.STREAM_ORDER_SHARDS_KEY);
+		if (shardKeys != null) {
+			streamKeys.addAll(shardKeys);
+		}
+		orderStreamKeysExpireAt = System.currentTimeMillis() + STREAM_KEYS_TTL;
+		orderStreamKeys = streamKeys;
+		return streamKeys;
+	}
+
+	/**
+	 * 删除已经消费完的旧一代分片Stream队列：没有未投递的消息，也没有pending消息
+	 */
+	public void cleanRetiredStreams() {
+		Set<String> retiredKeys = stringRedisTemplate.opsForSet().members(RedisConstants.STREAM_ORDER_RETIRED_KEY);
+		if (retiredKeys == null) {
+			return;
+		}
+		for (String streamKey : retiredKeys) {
+			try {
+				if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+					String lastId = stringRedisTemplate.opsForStream().info(streamKey).lastGeneratedId();
+					boolean drained = stringRedisTemplate.opsForStream().groups(streamKey).stream()
+							.filter(group -> RedisConstants.STREAM_ORDER_GROUP.equals(group.groupName()))
+							.allMatch(group -> group.pendingCount() == 0 && lastId.equals(group.lastDeliveredId()));
+					if (!drained) {
+						continue;
+					}
+					stringRedisTemplate.delete(streamKey);
+				}
+				stringRedisTemplate.opsForSet().remove(RedisConstants.STREAM_ORDER_SHARDS_KEY, streamKey);
+				stringRedisTemplate.opsForSet().remove(RedisConstants.STREAM_ORDER_RETIRED_KEY, streamKey);
+				orderStreamKeys = null;
+			} catch (Exception e) {
+				log.error("清理订单Stream队列失败！key：{}", streamKey, e);
+			}
+		}
+	}
+
+	/**
+	 * 收到库存变更消息，清除本地缓存的分片布局和Stream队列key
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String voucherId = new String(message.getBody(), StandardCharsets.UTF_8);
+		orderStreamKeys = null;
+		try {
+			layoutMap.remove(Long.valueOf(voucherId));
+		} catch (NumberFormatException e) {
+			log.error("库存变更消息格式错误：{}", voucherId);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.dto.RowChangeDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 根据tb_shop的binlog行变更刷新店铺缓存和GEO索引
+ * 行变更先进入队列，由单独的线程按批次合并处理：新增和更新的店铺批量查询数据库后写回缓存，删除的店铺删除缓存，
+ * 并通知所有节点删除本地缓存，缓存的不一致时间不超过binlog延迟加上一个批次间隔
+ * 处理失败的批次会一直重试，处理成功后才确认，binlog读取器才会保存消费位置，宕机后从未确认的事务重新处理
+ * @author: Mr.Ye
+ * @create: 2026-10-18 22:40
+ **/
+@Slf4j
+@Component
+public class ShopCacheInvalidator {
+
+	private static final String SHOP_TABLE = "tb_shop";
+
+	@Resource
+	private IBinlogReader binlogReader;
+
+	@Resource
+	private IShopService shopService;
+
+	@Resource
+	private CacheClient cacheClient;
+
+	@Resource
+	private CacheBloomFilter cacheBloomFilter;
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * 每批最多处理的行变更数
+	 */
+	@Value("${hmdp.cdc.batch-size:500}")
+	private int batchSize;
+
+	/**
+	 * 收到第一个行变更后最多等待多久凑成一批（毫秒）
+	 */
+	@Value("${hmdp.cdc.flush-interval:100}")
+	private long flushInterval;
+
+	/**
+	 * 处理失败后的最大重试间隔（毫秒）
+	 */
+	private static final long MAX_RETRY_INTERVAL = 10000L;
+
+	/**
+	 * 等待处理的事务，队列满时阻塞binlog读取线程
+	 */
+	private final LinkedBlockingQueue<PendingRows> rowChangeQueue = new LinkedBlockingQueue<>(10000);
+
+	private final ExecutorService invalidateExecutor =
+			Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("shop-cache-invalidator-", true));
+
+	@PostConstruct
+	private void init() {
+		binlogReader.subscribe((rowChangeList, ack) -> {
+			List<RowChangeDTO> shopRowList = rowChangeList.stream()
+					.filter(rowChange -> SHOP_TABLE.equals(rowChange.getTable())).collect(Collectors.toList());
+			try {
+				rowChangeQueue.put(new PendingRows(shopRowList, ack));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		invalidateExecutor.submit(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					// 1. 等待第一个事务，再等待一个批次间隔凑成一批
+					PendingRows first = rowChangeQueue.take();
+					List<PendingRows> pendingList = new ArrayList<>();
+					List<RowChangeDTO> batch = new ArrayList<>(first.rowChangeList);
+					pendingList.add(first);
+					long deadline = System.currentTimeMillis() + flushInterval;
+					while (batch.size() < batchSize) {
+						PendingRows next = rowChangeQueue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+						if (next == null) {
+							break;
+						}
+						pendingList.add(next);
+						batch.addAll(next.rowChangeList);
+					}
+					// 2. 处理这一批行变更，失败时重试，成功后按顺序确认
+					handleWithRetry(batch);
+					pendingList.forEach(pending -> pending.ack.run());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	@PreDestroy
+	private void destroy() {
+		invalidateExecutor.shutdownNow();
+	}
+
+	/**
+	 * 处理一批行变更，失败时按指数退避一直重试，期间后续的行变更在队列中等待，不会跳过
+	 *
+	 * @param batch 行变更
+	 */
+	private void handleWithRetry(List<RowChangeDTO> batch) throws InterruptedException {
+		long retryInterval = 100L;
+		while (true) {
+			try {
+				handleRowChanges(batch);
+				return;
+			} catch (Exception e) {
+				log.error("刷新店铺缓存失败，{}ms后重试！", retryInterval, e);
+				Thread.sleep(retryInterval);
+				retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * 处理一批tb_shop的行变更
+	 *
+	 * @param rowChangeList 行变更
+	 */
+	public void handleRowChanges(List<RowChangeDTO> rowChangeList) {
+		// 1. 合并同一个店铺的多次变更，记录变更前的类型，用于从旧类型的GEO索引中删除
+		Set<Long> changedIds = new LinkedHashSet<>();
+		Set<Long> insertedIds = new HashSet<>();
+		Map<Long, Set<Long>> oldTypeMap = new HashMap<>();
+		for (RowChangeDTO rowChange : rowChangeList) {
+			Map<String, Serializable> row = rowChange.getAfter() != null ? rowChange.getAfter() : rowChange.getBefore();
+			Long id = toLong(row.get("id"));
+			if (id == null) {
+				continue;
+			}
+			changedIds.add(id);
+			if (RowChangeDTO.INSERT.equals(rowChange.getType())) {
+				insertedIds.add(id);
+			}
+			if (rowChange.getBefore() != null && rowChange.getBefore().get("type_id") != null) {
+				oldTypeMap.computeIfAbsent(id, k -> new HashSet<>()).add(toLong(rowChange.getBefore().get("type_id")));
+			}
+		}
+		if (changedIds.isEmpty()) {
+			return;
+		}
+		// 2. 变更已经提交，批量查询数据库中的最新数据，查不到的就是已删除的店铺
+		Map<Long, Shop> shopMap = shopService.listByIds(changedIds).stream()
+				.collect(Collectors.toMap(Shop::getId, Function.identity()));
+		List<String> deletedKeys = changedIds.stream().filter(id -> !shopMap.containsKey(id))
+				.map(id -> RedisConstants.CACHE_SHOP_KEY + id).collect(Collectors.toList());
+		// 3. 批量写回最新数据，批量删除已删除店铺的缓存，都会通知各节点删除本地缓存
+		cacheClient.setBatchWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, shopMap, RedisConstants.CACHE_SHOP_TTL, 0L,
+				TimeUnit.SECONDS, true);
+		cacheClient.delete(deletedKeys);
+		// 4. 通过管道更新GEO索引：从旧类型中删除，再添加到新类型
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			for (Long id : changedIds) {
+				byte[] member = id.toString().getBytes(StandardCharsets.UTF_8);
+				Shop shop = shopMap.get(id);
+				for (Long oldTypeId : oldTypeMap.getOrDefault(id, Collections.emptySet())) {
+					if (shop == null || !oldTypeId.equals(shop.getTypeId())) {
+						connection.zSetCommands().zRem((RedisConstants.SHOP_GEO_KEY + oldTypeId).getBytes(StandardCharsets.UTF_8), member);
+					}
+				}
+				if (shop != null) {
+					connection.geoCommands().geoAdd((RedisConstants.SHOP_GEO_KEY + shop.getTypeId()).getBytes(StandardCharsets.UTF_8),
+							new Point(shop.getX(), shop.getY()), member);
+				}
+			}
+			return null;
+		});
+		// 5. 新增的店铺加入布隆过滤器
+		for (Long id : insertedIds) {
+			cacheBloomFilter.add(RedisConstants.CACHE_SHOP_KEY, id);
+		}
+		log.debug("根据binlog刷新店铺缓存，行变更：{}，刷新：{}，删除：{}", rowChangeList.size(), shopMap.size(), deletedKeys.size());
+	}
+
+	private static Long toLong(Serializable value) {
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+
+	/**
+	 * 一个事务中tb_shop的行变更，以及处理完成后的确认函数
+	 */
+	private static class PendingRows {
+		private final List<RowChangeDTO> rowChangeList;
+		private final Runnable ack;
+
+		private PendingRows(List<RowChangeDTO> rowChangeList, Runnable ack) {
+			this.rowChangeList = rowChangeList;
+			this.ack = ack;
+		}
+	}
+}
@@ -0,0 +1,466 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 无状态登录会话，token中携带用户信息并用HMAC-SHA256签名，校验时不需要访问Redis
+ * token格式：密钥ID.载荷.签名，载荷包含会话ID、过期时间和用户信息；登出的会话ID保存在Redis的ZSet中，
+ * 每个节点用本地布隆过滤器判断，只有可能已登出时才查询Redis；每个用户的会话ID保存在ZSet索引中，用于登出所有设备
+ * @author: Mr.Ye
+ * @create: 2026-10-18 23:50
+ **/
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.login.mode", havingValue = "token")
+public class SignedTokenSessionManager implements ILoginSessionManager {
+
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	private static final byte PAYLOAD_VERSION = 1;
+
+	/**
+	 * 密钥最少字节数
+	 */
+	private static final int MIN_KEY_BYTES = 32;
+
+	private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+		try {
+			return Mac.getInstance(HMAC_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	private final StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * 密钥ID -> 密钥
+	 */
+	private final Map<String, SecretKeySpec> keyMap = new LinkedHashMap<>();
+
+	/**
+	 * 用于签名的密钥ID，即配置的第一个密钥
+	 */
+	private final String activeKid;
+
+	/**
+	 * token有效期（毫秒）
+	 */
+	private final long ttlMillis;
+
+	private final long revokedExpectedInsertions;
+
+	/**
+	 * 已登出会话ID的本地布隆过滤器，定时从Redis重建
+	 */
+	private volatile RevokedFilter revokedFilter;
+
+	/**
+	 * 重建期间收到的登出通知同时写入新的过滤器，不在重建时为null
+	 */
+	private volatile RevokedFilter rebuildingFilter;
+
+	private volatile long revokedCount;
+
+	private final AtomicLong verifiedCount = new AtomicLong();
+
+	private final AtomicLong invalidCount = new AtomicLong();
+
+	private final AtomicLong filterHitCount = new AtomicLong();
+
+	private final AtomicLong revokedHitCount = new AtomicLong();
+
+	private final AtomicLong renewedCount = new AtomicLong();
+
+	/**
+	 * @param keys                      签名密钥列表，格式为 密钥ID:Base64密钥，第一个用于签名，其余只用于校验
+	 * @param ttl                       token有效期（分钟）
+	 * @param revokedExpectedInsertions 预计同时存在的已登出会话数
+	 */
+	public SignedTokenSessionManager(StringRedisTemplate stringRedisTemplate,
+									 @Value("${hmdp.login.token.keys}") String[] keys,
+									 @Value("${hmdp.login.token.ttl:30}") long ttl,
+									 @Value("${hmdp.login.token.revoked-expected-insertions:100000}") long revokedExpectedInsertions) {
+		this.stringRedisTemplate = stringRedisTemplate;
+		for (String key : keys) {
+			int index = key.indexOf(':');
+			String kid = index > 0 ? key.substring(0, index).trim() : null;
+			if (StrUtil.isBlank(kid) || kid.contains(".")) {
+				throw new IllegalArgumentException("签名密钥格式错误，应为 密钥ID:Base64密钥");
+			}
+			byte[] secret = Base64.getDecoder().decode(key.substring(index + 1).trim());
+			if (secret.length < MIN_KEY_BYTES) {
+				throw new IllegalArgumentException("签名密钥长度不能少于" + MIN_KEY_BYTES + "字节：" + kid);
+			}
+			keyMap.put(kid, new SecretKeySpec(secret, HMAC_ALGORITHM));
+		}
+		if (keyMap.isEmpty()) {
+			throw new IllegalArgumentException("未配置签名密钥：hmdp.login.token.keys");
+		}
+		this.activeKid = keyMap.keySet().iterator().next();
+		this.ttlMillis = TimeUnit.MINUTES.toMillis(ttl);
+		this.revokedExpectedInsertions = revokedExpectedInsertions;
+		this.revokedFilter = new RevokedFilter(revokedExpectedInsertions);
+	}
+
+	/**
+	 * 生成新会话ID的token，会话ID加入用户的索引
+	 */
+	@Override
+	public String create(UserDTO user) {
+		Claims claims = new Claims(ThreadLocalRandom.current().nextLong(), System.currentTimeMillis() + ttlMillis, user);
+		indexSession(claims, true);
+		return sign(claims);
+	}
+
+	/**
+	 * 校验签名和过期时间，会话ID可能已登出时才查询Redis
+	 */
+	@Override
+	public UserDTO get(String token) {
+		// 1. 校验签名和过期时间
+		Claims claims = verify(token);
+		if (claims == null) {
+			invalidCount.incrementAndGet();
+			return null;
+		}
+		verifiedCount.incrementAndGet();
+		// 2. 本地布隆过滤器判断是否可能已登出，可能时再查询Redis确认
+		if (revokedFilter.mightContain(claims.jti)) {
+			filterHitCount.incrementAndGet();
+			if (stringRedisTemplate.opsForZSet().score(RedisConstants.LOGIN_REVOKED_KEY, String.valueOf(claims.jti)) != null) {
+				revokedHitCount.incrementAndGet();
+				return null;
+			}
+		}
+		return claims.user;
+	}
+
+	/**
+	 * 剩余有效期低于阈值，或者签名密钥已经轮换时，签发会话ID不变的新token
+	 */
+	@Override
+	public String renew(String token) {
+		// get已经校验过签名，这里只解析载荷
+		int first = token.indexOf('.');
+		int last = token.lastIndexOf('.');
+		Claims claims = decodePayload(token.substring(first + 1, last));
+		if (claims == null) {
+			return null;
+		}
+		long threshold = TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_REFRESH_THRESHOLD);
+		boolean expiring = claims.expireAt - System.currentTimeMillis() < threshold;
+		if (!expiring && activeKid.equals(token.substring(0, first))) {
+			return null;
+		}
+		renewedCount.incrementAndGet();
+		Claims renewed = new Claims(claims.jti, System.currentTimeMillis() + ttlMillis, claims.user);
+		indexSession(renewed, false);
+		return sign(renewed);
+	}
+
+	/**
+	 * 记录已登出的会话ID，保留到由它续期出的token都过期为止，并通知所有节点
+	 */
+	@Override
+	public void invalidate(String token) {
+		Claims claims = verify(token);
+		if (claims == null) {
+			return;
+		}
+		revoke(RedisConstants.LOGIN_USER_TOKENS_KEY + claims.user.getId(), Collections.singleton(String.valueOf(claims.jti)));
+	}
+
+	/**
+	 * 通过管道一次记录用户的所有会话ID为已登出
+	 */
+	@Override
+	public int invalidateAll(Long userId) {
+		String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userId;
+		Set<String> jtiSet = stringRedisTemplate.opsForZSet().range(tokensKey, 0, -1);
+		if (jtiSet == null || jtiSet.isEmpty()) {
+			return 0;
+		}
+		revoke(tokensKey, jtiSet);
+		return jtiSet.size();
+	}
+
+	/**
+	 * 通过管道记录已登出的会话ID、从用户的索引中移除，并通知所有节点
+	 *
+	 * @param tokensKey 用户的会话ID索引
+	 * @param jtis      会话ID
+	 */
+	private void revoke(String tokensKey, Collection<String> jtis) {
+		String[] jtiArray = jtis.toArray(new String[0]);
+		double revokedUntil = System.currentTimeMillis() + ttlMillis;
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			for (String jti : jtiArray) {
+				stringConnection.zAdd(RedisConstants.LOGIN_REVOKED_KEY, revokedUntil, jti);
+				stringConnection.publish(RedisConstants.LOGIN_SESSION_CHANNEL, jti);
+			}
+			stringConnection.zRem(tokensKey, jtiArray);
+			return null;
+		});
+		for (String jti : jtiArray) {
+			addRevoked(Long.parseLong(jti));
+		}
+	}
+
+	/**
+	 * 记录会话ID和过期时间到用户的索引，只在登录和续期时写入
+	 *
+	 * @param claims 载荷
+	 * @param trim   是否删除索引中已过期的会话ID
+	 */
+	private void indexSession(Claims claims, boolean trim) {
+		String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + claims.user.getId();
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			StringRedisConnection stringConnection = (StringRedisConnection) connection;
+			stringConnection.zAdd(tokensKey, claims.expireAt, String.valueOf(claims.jti));
+			if (trim) {
+				stringConnection.zRemRangeByScore(tokensKey, 0, System.currentTimeMillis());
+			}
+			stringConnection.pExpire(tokensKey, ttlMillis);
+			return null;
+		});
+	}
+
+	/**
+	 * 收到其他节点的登出通知，加入本地布隆过滤器
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		try {
+			addRevoked(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8)));
+		} catch (NumberFormatException e) {
+			log.warn("登出通知格式错误：{}", new String(message.getBody(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * 删除已过期的登出记录，并从Redis重建本地布隆过滤器，弥补丢失的登出通知
+	 */
+	@Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.login.token.revoked-sync-interval:60000}")
+	public void syncRevoked() {
+		try {
+			rebuildingFilter = new RevokedFilter(revokedExpectedInsertions);
+			stringRedisTemplate.opsForZSet().removeRangeByScore(RedisConstants.LOGIN_REVOKED_KEY, 0, System.currentTimeMillis());
+			Set<String> jtiSet = stringRedisTemplate.opsForZSet().range(RedisConstants.LOGIN_REVOKED_KEY, 0, -1);
+			RevokedFilter filter = rebuildingFilter;
+			if (jtiSet != null) {
+				for (String jti : jtiSet) {
+					filter.add(Long.parseLong(jti));
+				}
+			}
+			revokedFilter = filter;
+			revokedCount = jtiSet == null ? 0 : jtiSet.size();
+		} catch (Exception e) {
+			log.error("同步已登出会话失败！", e);
+		} finally {
+			rebuildingFilter = null;
+		}
+	}
+
+	@Override
+	public Map<String, Object> stats() {
+		Map<String, Object> statsMap = new LinkedHashMap<>();
+		statsMap.put("mode", "token");
+		statsMap.put("activeKid", activeKid);
+		statsMap.put("kids", keyMap.keySet());
+		statsMap.put("revokedCount", revokedCount);
+		statsMap.put("verifiedCount", verifiedCount.get());
+		statsMap.put("invalidCount", invalidCount.get());
+		statsMap.put("filterHitCount", filterHitCount.get());
+		statsMap.put("revokedHitCount", revokedHitCount.get());
+		statsMap.put("renewedCount", renewedCount.get());
+		return statsMap;
+	}
+
+	private void addRevoked(long jti) {
+		revokedFilter.add(jti);
+		RevokedFilter filter = rebuildingFilter;
+		if (filter != null) {
+			filter.add(jti);
+		}
+	}
+
+	private String sign(Claims claims) {
+		String payload = ENCODER.encodeToString(encodePayload(claims));
+		String signingInput = activeKid + "." + payload;
+		return signingInput + "." + ENCODER.encodeToString(hmac(keyMap.get(activeKid), signingInput));
+	}
+
+	/**
+	 * 校验token
+	 *
+	 * @return 签名正确且未过期时返回载荷，否则返回null
+	 */
+	private Claims verify(String token) {
+		int first = token.indexOf('.');
+		int last = token.lastIndexOf('.');
+		if (first <= 0 || last <= first) {
+			return null;
+		}
+		SecretKeySpec key = keyMap.get(token.substring(0, first));
+		if (key == null) {
+			return null;
+		}
+		byte[] signature;
+		try {
+			signature = DECODER.decode(token.substring(last + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!MessageDigest.isEqual(signature, hmac(key, token.substring(0, last)))) {
+			return null;
+		}
+		Claims claims = decodePayload(token.substring(first + 1, last));
+		if (claims == null || claims.expireAt <= System.currentTimeMillis()) {
+			return null;
+		}
+		return claims;
+	}
+
+	private static byte[] hmac(SecretKeySpec key, String signingInput) {
+		try {
+			Mac mac = MAC.get();
+			mac.init(key);
+			return mac.doFinal(signingInput.getBytes(StandardCharsets.US_ASCII));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encodePayload(Claims claims) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(PAYLOAD_VERSION);
+			out.writeLong(claims.jti);
+			out.writeLong(claims.expireAt);
+			out.writeLong(claims.user.getId());
+			out.writeUTF(StrUtil.nullToEmpty(claims.user.getNickName()));
+			out.writeUTF(StrUtil.nullToEmpty(claims.user.getIcon()));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Claims decodePayload(String payload) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(DECODER.decode(payload)))) {
+			if (in.readByte() != PAYLOAD_VERSION) {
+				return null;
+			}
+			long jti = in.readLong();
+			long expireAt = in.readLong();
+			UserDTO user = new UserDTO();
+			user.setId(in.readLong());
+			user.setNickName(StrUtil.emptyToNull(in.readUTF()));
+			user.setIcon(StrUtil.emptyToNull(in.readUTF()));
+			return new Claims(jti, expireAt, user);
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * token载荷
+	 */
+	private static class Claims {
+		/**
+		 * 会话ID，续期后不变
+		 */
+		private final long jti;
+		/**
+		 * 过期时间（毫秒）
+		 */
+		private final long expireAt;
+		private final UserDTO user;
+
+		private Claims(long jti, long expireAt, UserDTO user) {
+			this.jti = jti;
+			this.expireAt = expireAt;
+			this.user = user;
+		}
+	}
+
+	/**
+	 * 已登出会话ID的布隆过滤器，误判率1%
+	 */
+	private static class RevokedFilter {
+		private final long numBits;
+		private final int numHashFunctions;
+		private final AtomicLongArray data;
+
+		private RevokedFilter(long expectedInsertions) {
+			// m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+			double fpp = 0.01;
+			this.numBits = Math.max(64, (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+			this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+			this.data = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+		}
+
+		private boolean mightContain(long jti) {
+			long[] hash = MurmurHash.hash128(ByteBuffer.allocate(Long.BYTES).putLong(jti).array());
+			long combined = hash[0];
+			for (int i = 0; i < numHashFunctions; i++) {
+				long offset = (combined & Long.MAX_VALUE) % numBits;
+				if ((data.get((int) (offset >>> 6)) & (1L << (offset & 63))) == 0) {
+					return false;
+				}
+				combined += hash[1];
+			}
+			return true;
+		}
+
+		private void add(long jti) {
+			long[] hash = MurmurHash.hash128(ByteBuffer.allocate(Long.BYTES).putLong(jti).array());
+			long combined = hash[0];
+			for (int i = 0; i < numHashFunctions; i++) {
+				long offset = (combined & Long.MAX_VALUE) % numBits;
+				data.getAndAccumulate((int) (offset >>> 6), 1L << (offset & 63), (a, b) -> a | b);
+				combined += hash[1];
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 本地雪花ID生成器，低32位拆分为节点ID和序列号，生成ID不需要访问Redis
+ * ID格式：秒级时间戳(32位) | 节点ID(10位) | 序列号(22位)，节点ID在启动时从Redis租约获取
+ * 租约可能已经过期时停止生成ID，直到重新租约到节点ID
+ * @author: Mr.Ye
+ * @create: 2026-10-18 16:10
+ **/
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.strategy", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IIdWorker {
+
+	public static final int NODE_BITS = 10;
+
+	public static final int SEQUENCE_BITS = RedisIdWorker.COUNT_BITS - NODE_BITS;
+
+	public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+	public static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+	private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+	static {
+		RENEW_SCRIPT = new DefaultRedisScript<>();
+		RENEW_SCRIPT.setLocation(new ClassPathResource("renewNode.lua"));
+		RENEW_SCRIPT.setResultType(Long.class);
+		RELEASE_SCRIPT = new DefaultRedisScript<>();
+		RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+		RELEASE_SCRIPT.setResultType(Long.class);
+	}
+
+	@Resource
+	private StringRedisTemplate stringRedisTemplate;
+
+	/**
+	 * 允许的最大时钟回拨秒数，回拨在此范围内时沿用上一次的时间戳继续分配序列号
+	 */
+	@Value("${hmdp.id.max-backward-seconds:5}")
+	private long maxBackwardSeconds;
+
+	/**
+	 * 节点租约的标识
+	 */
+	private final String leaseValue = UUID.randomUUID().toString(true);
+
+	private volatile long nodeId = -1;
+
+	/**
+	 * 租约的本地截止时间（System.nanoTime），从发起租约或续约的时刻算起，保证不晚于Redis中租约的过期时间
+	 */
+	private volatile long leaseDeadline;
+
+	/**
+	 * 上一次分配的 时间戳 << SEQUENCE_BITS | 序列号，通过CAS无锁更新
+	 */
+	private final AtomicLong lastState = new AtomicLong();
+
+	/**
+	 * 启动时租约节点ID，没有可用的节点ID时启动失败
+	 */
+	@PostConstruct
+	private void init() {
+		if (!leaseNodeId()) {
+			throw new IllegalStateException("雪花ID生成器没有可用的节点ID！");
+		}
+	}
+
+	/**
+	 * 租约节点ID SET hmdp:id:node:n leaseValue NX EX ttl
+	 * 节点ID的上一个持有者最多借用了 maxBackwardSeconds 秒的时间戳，租约成功后从这之后开始分配，避免重复
+	 *
+	 * @return 是否租约成功
+	 */
+	private synchronized boolean leaseNodeId() {
+		for (long i = 0; i <= MAX_NODE_ID; i++) {
+			long begin = System.nanoTime();
+			Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(RedisConstants.ID_NODE_KEY + i, leaseValue,
+					RedisConstants.ID_NODE_TTL, TimeUnit.SECONDS);
+			if (Boolean.TRUE.equals(success)) {
+				long state = (currentSecond() + maxBackwardSeconds) << SEQUENCE_BITS;
+				lastState.accumulateAndGet(state, Math::max);
+				nodeId = i;
+				leaseDeadline = begin + TimeUnit.SECONDS.toNanos(RedisConstants.ID_NODE_TTL);
+				log.info("雪花ID生成器租约节点ID：{}", nodeId);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 定时续约节点ID，通过脚本原子地比较租约标识并续期；租约丢失时重新租约节点ID，在此之前生成ID会失败
+	 */
+	@Scheduled(fixedDelay = RedisConstants.ID_NODE_RENEW_INTERVAL)
+	public void renewNodeId() {
+		String key = RedisConstants.ID_NODE_KEY + nodeId;
+		try {
+			long begin = System.nanoTime();
+			Long result = stringRedisTemplate.execute(
+					RENEW_SCRIPT,
+					Collections.singletonList(key),
+					leaseValue,
+					RedisConstants.ID_NODE_TTL.toString()
+			);
+			if (result != null && result == 1L) {
+				leaseDeadline = begin + TimeUnit.SECONDS.toNanos(RedisConstants.ID_NODE_TTL);
+				return;
+			}
+			log.error("雪花ID生成器节点ID租约丢失！节点ID：{}", nodeId);
+			leaseDeadline = begin;
+			if (!leaseNodeId()) {
+				log.error("雪花ID生成器没有可用的节点ID，暂停生成ID！");
+			}
+		} catch (Exception e) {
+			log.error("雪花ID生成器节点ID续约异常！", e);
+		}
+	}
+
+	@PreDestroy
+	private void releaseNodeId() {
+		stringRedisTemplate.execute(
+				RELEASE_SCRIPT,
+				Collections.singletonList(RedisConstants.ID_NODE_KEY + nodeId),
+				leaseValue
+		);
+	}
+
+	/**
+	 * 当前UTC时间的秒数，按时区的标准偏移换算，与夏令时无关，不会因为夏令时切换产生回拨
+	 * 对没有夏令时的时区与 RedisIdWorker.currentSecond() 一致
+	 */
+	static long currentSecond() {
+		return Math.floorDiv(System.currentTimeMillis() + TimeZone.getDefault().getRawOffset(), 1000L);
+	}
+
+	@Override
+	public Long nextId(String keyPrefix) {
+		// 租约可能已经过期时，节点ID可能已被其他节点使用，拒绝生成ID
+		// 先读截止时间再读节点ID，重新租约时先写节点ID再写截止时间，保证不会用旧节点ID配新的截止时间
+		if (System.nanoTime() - leaseDeadline >= 0) {
+			throw new IllegalStateException("雪花ID生成器节点ID租约已过期，拒绝生成ID！");
+		}
+		long node = nodeId;
+		while (true) {
+			long now = currentSecond();
+			long state = lastState.get();
+			long lastTimestamp = state >>> SEQUENCE_BITS;
+			// 1. 时钟回拨保护：小幅回拨沿用上一次的时间戳，超出范围直接报错
+			if (lastTimestamp - now > maxBackwardSeconds) {
+				throw new IllegalStateException("时钟回拨" + (lastTimestamp - now) + "秒，拒绝生成ID！");
+			}
+			long timestamp = Math.max(now, lastTimestamp);
+			long sequence = timestamp == lastTimestamp ? (state & SEQUENCE_MASK) + 1 : 0;
+			// 2. 当前秒的序列号用完，借用下一秒，借用过多时等待时钟追上
+			if (sequence > SEQUENCE_MASK) {
+				if (lastTimestamp + 1 - now > maxBackwardSeconds) {
+					Thread.yield();
+					continue;
+				}
+				timestamp = lastTimestamp + 1;
+				sequence = 0;
+			}
+			if (lastState.compareAndSet(state, timestamp << SEQUENCE_BITS | sequence)) {
+				// 3. 拼接返回
+				return timestamp << RedisIdWorker.COUNT_BITS | node << SEQUENCE_BITS | sequence;
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.RowChangeDTO;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * @program: hm-dianping-backend
+ * @description: 本地binlog读取器，未开启CDC时使用，由调用方（如测试）手动发布行变更
+ * 每个事务分配一个递增的位置，与 MysqlBinlogReader 相同，所有订阅者按顺序确认后才推进已确认的位置
+ * @author: Mr.Ye
+ * @create: 2026-10-18 22:15
+ **/
+@Component
+@ConditionalOnProperty(name = "hmdp.cdc.enabled", havingValue = "false", matchIfMissing = true)
+public class StubBinlogReader implements IBinlogReader {
+
+	private final List<BiConsumer<List<RowChangeDTO>, Runnable>> listenerList = new CopyOnWriteArrayList<>();
+
+	/**
+	 * 等待确认的事务：位置和还没有确认的订阅者数
+	 */
+	private final Deque<long[]> pendingQueue = new ArrayDeque<>();
+
+	private long lastPosition;
+
+	private volatile long ackedPosition;
+
+	@Override
+	public void subscribe(BiConsumer<List<RowChangeDTO>, Runnable> listener) {
+		listenerList.add(listener);
+	}
+
+	/**
+	 * 没有订阅binlog，缓存由调用方删除
+	 */
+	@Override
+	public boolean isConnected() {
+		return false;
+	}
+
+	/**
+	 * 发布一个事务的行变更
+	 *
+	 * @param rowChangeList 行变更
+	 * @return 事务的位置，所有订阅者确认后 getAckedPosition 才会推进到该位置
+	 */
+	public long publish(List<RowChangeDTO> rowChangeList) {
+		long[] transaction;
+		synchronized (pendingQueue) {
+			transaction = new long[]{++lastPosition, listenerList.size()};
+			pendingQueue.addLast(transaction);
+		}
+		if (listenerList.isEmpty()) {
+			acknowledge(transaction);
+		}
+		for (BiConsumer<List<RowChangeDTO>, Runnable> listener : listenerList) {
+			listener.accept(rowChangeList, () -> acknowledge(transaction));
+		}
+		return transaction[0];
+	}
+
+	/**
+	 * 已确认的位置，相当于 MysqlBinlogReader 保存的消费位置
+	 *
+	 * @return 位置，没有确认过的事务时为0
+	 */
+	public long getAckedPosition() {
+		return ackedPosition;
+	}
+
+	/**
+	 * 订阅者确认事务，队首连续已确认的事务出队，推进已确认的位置
+	 *
+	 * @param transaction 事务
+	 */
+	private void acknowledge(long[] transaction) {
+		synchronized (pendingQueue) {
+			if (transaction[1] > 0) {
+				transaction[1]--;
+			}
+			while (!pendingQueue.isEmpty() && pendingQueue.peekFirst()[1] == 0) {
+				ackedPosition = pendingQueue.pollFirst()[0];
+			}
+		}
+	}
+}
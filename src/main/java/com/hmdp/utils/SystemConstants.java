@@ -5,5 +5,7 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int FEED_PAGE_SIZE = 2;
+    public static final int BLOG_LIKERS_SIZE = 5;
     public static final String AUTHORIZATION = "authorization";
 }
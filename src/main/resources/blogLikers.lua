@@ -0,0 +1,29 @@
+-- 1. 参数列表
+-- 1.1. 笔记的点赞用户key
+local likedKey = KEYS[1]
+-- 1.2. 最早点赞用户快照key
+local likersKey = KEYS[2]
+-- 1.3. 快照有效期（秒）
+local ttl = ARGV[1]
+-- 1.4. 快照的长度
+local size = tonumber(ARGV[2])
+-- 1.5. 之后依次为 用户ID, 用户信息JSON
+
+-- 2. 脚本业务
+-- 2.1. 查询期间点赞用户发生了变化，不写入快照，返回0
+local userIds = redis.call('ZRANGE', likedKey, 0, size - 1)
+if (#userIds * 2 ~= #ARGV - 2) then
+    return 0
+end
+for i = 1, #userIds do
+    if (userIds[i] ~= ARGV[i * 2 + 1]) then
+        return 0
+    end
+end
+-- 2.2. 写入快照，返回1
+redis.call('DEL', likersKey)
+for i = 1, #userIds do
+    redis.call('RPUSH', likersKey, ARGV[i * 2 + 2])
+end
+redis.call('EXPIRE', likersKey, ttl)
+return 1
@@ -0,0 +1,7 @@
+-- ----------------------------
+-- 已有数据库升级：tb_blog 增加点赞写回批次列
+-- 使用 hmdp.sql 新建的库已经包含该列，无需执行
+-- 需要在部署 BlogMapper.updateLikedBatch 之前执行，否则写回点赞数会报 Unknown column 'liked_flush'
+-- ----------------------------
+ALTER TABLE `tb_blog`
+  ADD COLUMN `liked_flush` bigint(20) NOT NULL DEFAULT 0 COMMENT '最近一次写回点赞数的批次，重复写回同一批次时跳过' AFTER `update_time`;
@@ -0,0 +1,27 @@
+-- 1. 参数列表
+-- 1.1. 热门笔记排行key
+local hotKey = KEYS[1]
+-- 1.2. 热度衰减起点key
+local epochKey = KEYS[2]
+-- 1.3. 笔记ID
+local blogId = ARGV[1]
+-- 1.4. 发布时间
+local time = ARGV[2]
+-- 1.5. 热度半衰期（毫秒），小于等于0时不衰减
+local halfLife = tonumber(ARGV[3])
+
+-- 2. 脚本业务
+-- 2.0. 排行还没有构建时不加入，由重建从数据库读取
+if (redis.call('EXISTS', hotKey) == 0) then
+    return 0
+end
+-- 2.1. 不衰减时热度即点赞数，新笔记为0
+local score = 0
+-- 2.2. 衰减时发布相当于一次点赞，新笔记可以进入排行
+if (halfLife > 0) then
+    local epoch = tonumber(redis.call('GET', epochKey) or time)
+    score = math.pow(2, (tonumber(time) - epoch) / halfLife)
+end
+-- 2.3. 已经在排行中时不覆盖
+redis.call('ZADD', hotKey, 'NX', score, blogId)
+return 1
@@ -0,0 +1,57 @@
+-- 1. 参数列表
+-- 1.1. 重建中的排行key
+local buildingKey = KEYS[1]
+-- 1.2. 热门笔记排行key
+local hotKey = KEYS[2]
+-- 1.3. 热度衰减起点key
+local epochKey = KEYS[3]
+-- 1.4. 点赞数增量key
+local deltaKey = KEYS[4]
+-- 1.5. 待写回的点赞数增量key
+local flushingKey = KEYS[5]
+-- 1.6. 重建开始时间，衰减时作为新的衰减起点
+local start = tonumber(ARGV[1])
+-- 1.7. 当前时间
+local now = tonumber(ARGV[2])
+-- 1.8. 热度半衰期（毫秒），小于等于0时不衰减
+local halfLife = tonumber(ARGV[3])
+-- 1.9. 排行最多保留的笔记数
+local maxSize = tonumber(ARGV[4])
+-- 1.10. 待写回增量中已经写入数据库的笔记ID（写回中断在UPDATE之后、HDEL之前），合并时跳过
+local flushed = {}
+for i = 5, #ARGV do
+    flushed[ARGV[i]] = true
+end
+
+-- 2. 脚本业务
+-- 2.1. 重建期间不写回数据库，数据库中没有的点赞都在增量中，包括重建期间的点赞，按当前时间的热度合并
+local weight = 1
+if (halfLife > 0) then
+    weight = math.pow(2, (now - start) / halfLife)
+end
+for _, key in ipairs({ deltaKey, flushingKey }) do
+    local entries = redis.call('HGETALL', key)
+    for i = 1, #entries, 2 do
+        local delta = tonumber(entries[i + 1])
+        if (key == flushingKey and flushed[entries[i]]) then
+            delta = 0
+        end
+        -- 不在排行中的笔记只加入点赞增加的
+        if (delta > 0 or (delta < 0 and redis.call('ZSCORE', buildingKey, entries[i]))) then
+            redis.call('ZINCRBY', buildingKey, delta * weight, entries[i])
+        end
+    end
+end
+-- 2.2. 裁剪到最大长度后替换排行，同时更新衰减起点
+redis.call('ZREMRANGEBYRANK', buildingKey, 0, -maxSize - 1)
+if (redis.call('EXISTS', buildingKey) == 1) then
+    redis.call('RENAME', buildingKey, hotKey)
+else
+    redis.call('DEL', hotKey)
+end
+if (halfLife > 0) then
+    redis.call('SET', epochKey, start)
+else
+    redis.call('DEL', epochKey)
+end
+return 1
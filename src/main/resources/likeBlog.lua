@@ -0,0 +1,82 @@
+-- 1. 参数列表
+-- 1.1. 笔记的点赞用户key
+local likedKey = KEYS[1]
+-- 1.2. 点赞数增量key，由定时任务批量写回数据库
+local deltaKey = KEYS[2]
+-- 1.3. 热门笔记排行key
+local hotKey = KEYS[3]
+-- 1.4. 热度衰减起点key
+local epochKey = KEYS[4]
+-- 1.5. 最早点赞用户快照key
+local likersKey = KEYS[5]
+-- 1.6. 笔记ID
+local blogId = ARGV[1]
+-- 1.7. 用户ID
+local userId = ARGV[2]
+-- 1.8. 点赞时间
+local time = ARGV[3]
+-- 1.9. 热度半衰期（毫秒），小于等于0时不衰减，热度即点赞数
+local halfLife = tonumber(ARGV[4])
+-- 1.10. 用户信息JSON，写入点赞用户快照
+local userJson = ARGV[5]
+-- 1.11. 点赞用户快照的长度
+local size = tonumber(ARGV[6])
+
+-- 一次点赞的热度：不衰减时为1，衰减时为 2^((点赞时间 - 衰减起点) / 半衰期)
+local function weight(t)
+    if (halfLife <= 0) then
+        return 1
+    end
+    local epoch = tonumber(redis.call('GET', epochKey) or t)
+    return math.pow(2, (tonumber(t) - epoch) / halfLife)
+end
+
+-- 更新热度：排行还没有构建时不更新，由重建合并；不在排行中的笔记（被裁剪或重建时遗漏）按所有点赞重新计算热度，
+-- 不衰减时为点赞数，衰减时为每次点赞的热度之和
+local function updateHot(increment)
+    if (redis.call('EXISTS', hotKey) == 0) then
+        return
+    end
+    if (redis.call('ZSCORE', hotKey, blogId)) then
+        redis.call('ZINCRBY', hotKey, increment, blogId)
+        return
+    end
+    local score = 0
+    if (halfLife <= 0) then
+        score = redis.call('ZCARD', likedKey)
+    else
+        local likes = redis.call('ZRANGE', likedKey, 0, -1, 'WITHSCORES')
+        for i = 2, #likes, 2 do
+            score = score + weight(likes[i])
+        end
+    end
+    redis.call('ZADD', hotKey, score, blogId)
+end
+
+-- 2. 脚本业务
+-- 2.1. 已经点赞，取消点赞，点赞数增量-1，减去当时点赞的热度（不在排行中时重新计算），返回0
+local likedTime = redis.call('ZSCORE', likedKey, userId)
+if (likedTime) then
+    -- 用户在快照中时删除快照，查询时重建
+    if (redis.call('ZRANK', likedKey, userId) < size) then
+        redis.call('DEL', likersKey)
+    end
+    redis.call('ZREM', likedKey, userId)
+    redis.call('HINCRBY', deltaKey, blogId, -1)
+    updateHot(-weight(likedTime))
+    return 0
+end
+-- 2.2. 未点赞，点赞，点赞数增量+1，增加热度（不在排行中时重新计算），返回1
+redis.call('ZADD', likedKey, time, userId)
+redis.call('HINCRBY', deltaKey, blogId, 1)
+updateHot(weight(time))
+-- 2.3. 用户进入快照范围时，快照存在且正好缺少这个位置则追加，否则删除快照，查询时重建
+local rank = redis.call('ZRANK', likedKey, userId)
+if (rank < size) then
+    if (redis.call('EXISTS', likersKey) == 1 and redis.call('LLEN', likersKey) == rank) then
+        redis.call('RPUSH', likersKey, userJson)
+    else
+        redis.call('DEL', likersKey)
+    end
+end
+return 1
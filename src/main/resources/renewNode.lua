@@ -0,0 +1,7 @@
+-- 从Redis查询节点租约标识，和当前节点标识进行对比
+if (redis.call("GET", KEYS[1]) == ARGV[1]) then
+    -- 如果相同，续约
+    return redis.call("EXPIRE", KEYS[1], ARGV[2])
+end
+    -- 如果不同，租约已经丢失，直接返回
+    return 0
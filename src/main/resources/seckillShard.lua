@@ -0,0 +1,42 @@
+-- 分片库存秒杀脚本，KEYS只包含同一分片（同一hash tag）的key，保证集群下同一个slot
+-- 1. 参数列表
+-- 1.1. 库存分片key
+local stockKey = KEYS[1]
+-- 1.2. 库存分片的订单Stream队列key，订单写入扣减库存的分片
+local streamKey = KEYS[2]
+-- 1.3. 用户所属分片的订单key，为空表示从相邻分片借库存
+local orderKey = KEYS[3]
+-- 1.4. 优惠券ID
+local voucherId = ARGV[1]
+-- 1.5. 用户ID
+local userId = ARGV[2]
+-- 1.6. 订单ID
+local orderId = ARGV[3]
+
+-- 2. 从相邻分片借库存：用户已在所属分片占位，这里只扣减库存
+if (orderKey == nil) then
+    if (tonumber(redis.call('GET', stockKey) or '0') <= 0) then
+        -- 当前分片库存不足，返回1
+        return 1
+    end
+    redis.call('INCRBY', stockKey, -1)
+    redis.call('XADD', streamKey, '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
+    return 0
+end
+
+-- 3. 用户所属分片
+-- 3.1. 判断用户是否下单（一人一单）
+if (redis.call('SISMEMBER', orderKey, userId) == 1) then
+    -- 用户重复下单，返回2
+    return 2
+end
+-- 3.2. 所属分片库存不足，先占位一人一单，再去相邻分片借库存，返回3
+if (tonumber(redis.call('GET', stockKey) or '0') <= 0) then
+    redis.call('SADD', orderKey, userId)
+    return 3
+end
+-- 3.3 扣减库存，创建订单，将订单放入Stream队列
+redis.call('INCRBY', stockKey, -1)
+redis.call('SADD', orderKey, userId)
+redis.call('XADD', streamKey, '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
+return 0
@@ -1,22 +1,53 @@
 package com.hmdp;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.RowChangeDTO;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Shop;
+import com.hmdp.service.impl.BlogServiceImpl;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.service.impl.SignServiceImpl;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.FeedFanoutWorker;
+import com.hmdp.utils.ILoginSessionManager;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockSharding;
+import com.hmdp.utils.SignedTokenSessionManager;
+import com.hmdp.utils.StubBinlogReader;
+import org.junit.jupiter.api.Assertions;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @SpringBootTest
@@ -30,24 +61,322 @@ class HmDianPingApplicationTests {
 	@Resource
 	private StringRedisTemplate stringRedisTemplate;
 
+	@Resource
+	private SeckillStockSharding seckillStockSharding;
+
+	@Resource
+	private StubBinlogReader stubBinlogReader;
+
+	@Resource
+	private FeedFanoutWorker feedFanoutWorker;
+
+	@Resource
+	private BlogServiceImpl blogService;
+
+	@Resource
+	private BlogHotRanking blogHotRanking;
+
+	@Resource
+	private SignServiceImpl signService;
+
 	public final ExecutorService executorService = Executors.newFixedThreadPool(500);
 
+	/**
+	 * ID生成压测：逐个INCR与号段模式的吞吐量对比，并校验ID不重复、单线程内单调递增
+	 */
 	// @Test
 	void testNextId() throws InterruptedException {
+		int threads = 300;
+		int idsPerThread = 10000;
+		for (int segmentSize : new int[]{1, 100, 1000, 10000}) {
+			RedisIdWorker idWorker = new RedisIdWorker(stringRedisTemplate, segmentSize);
+			Set<Long> idSet = ConcurrentHashMap.newKeySet(threads * idsPerThread);
+			AtomicBoolean monotonic = new AtomicBoolean(true);
+			CountDownLatch latch = new CountDownLatch(threads);
+			long start = System.currentTimeMillis();
+			Runnable task = () -> {
+				long last = 0;
+				for (int i = 0; i < idsPerThread; i++) {
+					long id = idWorker.nextId("bench");
+					if (id <= last) {
+						monotonic.set(false);
+					}
+					last = id;
+					idSet.add(id);
+				}
+				latch.countDown();
+			};
+			for (int i = 0; i < threads; i++) {
+				executorService.submit(task);
+			}
+			latch.await();
+			long cost = System.currentTimeMillis() - start;
+			System.out.println("号段大小：" + segmentSize + "，耗时：" + cost + "ms，吞吐量：" + (threads * idsPerThread * 1000L / cost)
+					+ "个/秒，不重复：" + (idSet.size() == threads * idsPerThread) + "，单调递增：" + monotonic.get());
+			Assertions.assertEquals(threads * idsPerThread, idSet.size(), "号段大小：" + segmentSize);
+			Assertions.assertTrue(monotonic.get(), "号段大小：" + segmentSize);
+		}
+	}
+
+	/**
+	 * 分片库存压测：不同分片数下的秒杀吞吐量，并校验成功数等于总库存
+	 */
+	// @Test
+	void testSeckillShardThroughput() throws InterruptedException {
+		int stock = 100000;
+		int threads = 200;
+		int requestsPerThread = 1000;
+		for (int shardCount : new int[]{1, 2, 4, 8, 16}) {
+			Long voucherId = -1000L - shardCount;
+			seckillStockSharding.initStock(voucherId, stock, shardCount);
+			AtomicLong success = new AtomicLong();
+			AtomicLong userIdGenerator = new AtomicLong();
+			CountDownLatch latch = new CountDownLatch(threads);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < threads; i++) {
+				executorService.submit(() -> {
+					for (int j = 0; j < requestsPerThread; j++) {
+						Long result = seckillStockSharding.seckill(voucherId, userIdGenerator.incrementAndGet(), 0L);
+						if (result != null && result == 0) {
+							success.incrementAndGet();
+						}
+					}
+					latch.countDown();
+				});
+			}
+			latch.await();
+			long cost = System.currentTimeMillis() - start;
+			System.out.println("分片数：" + shardCount + "，耗时：" + cost + "ms，吞吐量：" + (threads * requestsPerThread * 1000L / cost)
+					+ "次/秒，成功：" + success.get() + "，库存：" + stock);
+			// 重新分片为2片，已下单的用户不能再次下单
+			seckillStockSharding.initStock(voucherId, stock, 2);
+			Long result = seckillStockSharding.seckill(voucherId, 1L, 0L);
+			System.out.println("重新分片后重复下单：" + (result != null && result == 2));
+			// 清理压测数据，第1代为压测分片，第2代为重新分片
+			List<String> keys = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				keys.add(SeckillStockSharding.stockShardKey(voucherId, 2, i));
+				keys.add(SeckillStockSharding.orderShardKey(voucherId, 2, i));
+				keys.add(SeckillStockSharding.streamShardKey(voucherId, 2, i));
+				stringRedisTemplate.opsForSet().remove(RedisConstants.STREAM_ORDER_SHARDS_KEY, SeckillStockSharding.streamShardKey(voucherId, 2, i));
+			}
+			keys.add(RedisConstants.SECKILL_SHARD_KEY + voucherId);
+			stringRedisTemplate.delete(keys);
+		}
+	}
+
+	/**
+	 * 缓存编码压测：JSON与二进制编码的编解码耗时、编码后大小以及Redis中每个店铺占用的内存
+	 */
+	// @Test
+	void testCacheCodec() {
+		List<Shop> shopList = shopService.list();
+		long expireAt = System.currentTimeMillis() + 30 * 60 * 1000L;
+		int rounds = 10000;
+		for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+			String name = codec.getClass().getSimpleName();
+			List<byte[]> bytesList = new ArrayList<>(shopList.size());
+			// 预热
+			for (int i = 0; i < rounds; i++) {
+				for (Shop shop : shopList) {
+					codec.decode(codec.encode(shop, expireAt), Shop.class, true);
+				}
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				bytesList.clear();
+				for (Shop shop : shopList) {
+					bytesList.add(codec.encode(shop, expireAt));
+				}
+			}
+			long encodeCost = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				for (byte[] bytes : bytesList) {
+					codec.decode(bytes, Shop.class, true);
+				}
+			}
+			long decodeCost = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				for (byte[] bytes : bytesList) {
+					codec.readExpireAt(bytes);
+				}
+			}
+			long expireCost = System.nanoTime() - start;
+			// 写入Redis统计内存占用
+			long totalSize = 0;
+			long totalMemory = 0;
+			for (int i = 0; i < bytesList.size(); i++) {
+				byte[] key = ("bench:codec:" + name + ":" + i).getBytes(StandardCharsets.UTF_8);
+				byte[] bytes = bytesList.get(i);
+				totalSize += bytes.length;
+				totalMemory += stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+					connection.stringCommands().set(key, bytes);
+					Object memory = connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key);
+					connection.keyCommands().del(key);
+					return memory == null ? 0L : (Long) memory;
+				});
+			}
+			long count = (long) rounds * shopList.size();
+			System.out.println(name + "：编码" + encodeCost / count + "ns/次，解码" + decodeCost / count
+					+ "ns/次，读取过期时间" + expireCost / count + "ns/次，平均大小" + totalSize / shopList.size()
+					+ "字节，Redis平均内存" + totalMemory / shopList.size() + "字节");
+		}
+	}
+
+	/**
+	 * 通过本地binlog读取器模拟绕过服务直接修改数据库，校验店铺缓存被刷新
+	 */
+	// @Test
+	void testShopCacheInvalidation() throws InterruptedException {
+		Long id = 1L;
+		Shop shop = shopService.getById(id);
+		String name = shop.getName();
+		shopService.update().set("name", name + "-cdc").eq("id", id).update();
+		Map<String, Serializable> row = new HashMap<>();
+		row.put("id", id);
+		row.put("type_id", shop.getTypeId());
+		long position = stubBinlogReader.publish(Collections.singletonList(new RowChangeDTO("tb_shop", RowChangeDTO.UPDATE, row, row)));
+		Thread.sleep(500);
+		Assertions.assertEquals(position, stubBinlogReader.getAckedPosition());
+		Assertions.assertEquals(name + "-cdc", ((Shop) shopService.queryById(id).getData()).getName());
+		// 恢复数据
+		shopService.update().set("name", name).eq("id", id).update();
+		position = stubBinlogReader.publish(Collections.singletonList(new RowChangeDTO("tb_shop", RowChangeDTO.UPDATE, row, row)));
+		Thread.sleep(500);
+		Assertions.assertEquals(position, stubBinlogReader.getAckedPosition());
+		Assertions.assertEquals(name, ((Shop) shopService.queryById(id).getData()).getName());
+	}
+
+	/**
+	 * 登录会话校验压测：Redis会话（本地缓存命中/未命中）与签名token的单次校验耗时对比
+	 */
+	// @Test
+	void testLoginSessionBenchmark() {
+		UserDTO user = new UserDTO();
+		user.setId(1L);
+		user.setNickName("user_bench");
+		user.setIcon("/imgs/icons/bench.jpg");
+		int requests = 100000;
+		ILoginSessionManager redisManager = new LoginSessionCache(stringRedisTemplate, 10);
+		// 每次生成临时的签名密钥
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		ILoginSessionManager tokenManager = new SignedTokenSessionManager(stringRedisTemplate,
+				new String[]{"bench:" + Base64.getEncoder().encodeToString(secret)}, 30L, 100000L);
+		for (ILoginSessionManager manager : Arrays.asList(redisManager, tokenManager)) {
+			String token = manager.create(user);
+			// 未命中本地缓存：每次使用新的管理器实例，只对Redis会话有影响
+			long start = System.nanoTime();
+			for (int i = 0; i < 1000; i++) {
+				ILoginSessionManager cold = manager instanceof LoginSessionCache ? new LoginSessionCache(stringRedisTemplate, 10) : manager;
+				cold.get(token);
+			}
+			long coldCost = (System.nanoTime() - start) / 1000;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				manager.get(token);
+				manager.renew(token);
+			}
+			long hotCost = (System.nanoTime() - start) / requests;
+			System.out.println(manager.stats().get("mode") + "，token长度：" + token.length() + "，未命中本地缓存：" + coldCost
+					+ "ns/次，活跃用户：" + hotCost + "ns/次");
+			manager.invalidate(token);
+			System.out.println("登出后：" + manager.get(token));
+		}
+	}
+
+	/**
+	 * 异步推送笔记：发布后立即返回，轮询推送进度直到完成
+	 */
+	// @Test
+	void testFeedFanout() throws InterruptedException {
+		Long blogId = 4L;
+		Long authorId = 2L;
 		long start = System.currentTimeMillis();
-		CountDownLatch latch = new CountDownLatch(300);
-		Runnable task = () -> {
-			for (int i = 0; i < 100; i++) {
-				System.out.println("id=" + redisIdWorker.nextId("order"));
+		feedFanoutWorker.publish(blogId, authorId, start);
+		System.out.println("发布耗时：" + (System.currentTimeMillis() - start) + "ms");
+		for (int i = 0; i < 100; i++) {
+			Map<Object, Object> progress = feedFanoutWorker.progress(blogId);
+			System.out.println("推送进度：" + progress);
+			if (FeedFanoutWorker.STATUS_DONE.equals(progress.get("status"))) {
+				break;
 			}
-			latch.countDown();
-		};
-		for (int i = 0; i < 300; i++) {
-			executorService.submit(task);
+			Thread.sleep(100);
+		}
+		System.out.println(feedFanoutWorker.stats());
+	}
+
+	/**
+	 * 点赞数写回：写回后重放同一批次，校验数据库中的点赞数只累加一次
+	 */
+	// @Test
+	void testFlushLikes() {
+		Map<Long, Integer> likedBefore = blogService.list().stream()
+				.collect(Collectors.toMap(blog -> blog.getId(), blog -> blog.getLiked()));
+		Map<String, String> deltaMap = new HashMap<>();
+		for (Long blogId : likedBefore.keySet()) {
+			stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKED_DELTA_KEY, blogId.toString(), 10);
+			deltaMap.put(blogId.toString(), "10");
+		}
+		long start = System.currentTimeMillis();
+		blogService.flushLikes();
+		System.out.println("写回" + likedBefore.size() + "篇笔记，耗时：" + (System.currentTimeMillis() - start) + "ms");
+		Assertions.assertFalse(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKED_FLUSHING_KEY));
+		blogService.list().forEach(blog -> Assertions.assertEquals(likedBefore.get(blog.getId()) + 10, blog.getLiked()));
+		// 模拟数据库已经提交但待写回字段没有删除：批次不变，重放同一批增量
+		stringRedisTemplate.opsForHash().putAll(RedisConstants.BLOG_LIKED_FLUSHING_KEY, deltaMap);
+		blogService.flushLikes();
+		Assertions.assertFalse(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKED_FLUSHING_KEY));
+		blogService.list().forEach(blog -> Assertions.assertEquals(likedBefore.get(blog.getId()) + 10, blog.getLiked()));
+		// 恢复数据
+		for (Long blogId : likedBefore.keySet()) {
+			stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKED_DELTA_KEY, blogId.toString(), -10);
+		}
+		blogService.flushLikes();
+		blogService.list().forEach(blog -> Assertions.assertEquals(likedBefore.get(blog.getId()), blog.getLiked()));
+	}
+
+	// @Test
+	void testHotBlogRanking() {
+		// 删除排行后由维护任务从数据库重建
+		stringRedisTemplate.delete(RedisConstants.BLOG_HOT_KEY);
+		blogHotRanking.maintain();
+		System.out.println("排行长度：" + stringRedisTemplate.opsForZSet().zCard(RedisConstants.BLOG_HOT_KEY));
+		// 不同页码的查询耗时应该相同
+		for (int current : new int[]{1, 10, 100, 1000}) {
+			long start = System.nanoTime();
+			Result result = blogService.queryHotBlog(current);
+			System.out.println("第" + current + "页：" + ((List<?>) result.getData()).size() + "条，耗时："
+					+ (System.nanoTime() - start) / 1000 + "us");
 		}
-		latch.await();
-		long end = System.currentTimeMillis();
-		System.out.println("耗时：" + (end - start));
+	}
+
+	// @Test
+	void testSignArchive() {
+		// 模拟上个月1000个用户的签到位图
+		LocalDate lastMonth = LocalDate.now().minusMonths(1);
+		String month = lastMonth.format(DateTimeFormatter.ofPattern("yyyyMM"));
+		Random random = new Random();
+		stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+			for (long userId = 1; userId <= 1000; userId++) {
+				byte[] key = (RedisConstants.USER_SIGN_KEY + userId + ":" + month).getBytes(StandardCharsets.UTF_8);
+				for (int day = 0; day < lastMonth.lengthOfMonth(); day++) {
+					if (random.nextInt(4) > 0) {
+						connection.stringCommands().setBit(key, day, true);
+					}
+				}
+				connection.setCommands().sAdd((RedisConstants.USER_SIGN_USERS_KEY + month).getBytes(StandardCharsets.UTF_8),
+						String.valueOf(userId).getBytes(StandardCharsets.UTF_8));
+			}
+			return null;
+		});
+		stringRedisTemplate.delete(RedisConstants.USER_SIGN_ARCHIVED_KEY + month);
+		long start = System.currentTimeMillis();
+		signService.archive();
+		System.out.println("归档耗时：" + (System.currentTimeMillis() - start) + "ms，行数："
+				+ signService.query().eq("date", lastMonth.withDayOfMonth(1)).count());
 	}
 
 	//	@Test
@@ -0,0 +1,205 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BlogServiceImplTests {
+
+	/**
+	 * 随机生成收件箱和多个发件箱，按 queryFollowBlogs 的 maxTime/offset 游标逐页归并，
+	 * 结果与把所有来源放进一个ZSet后执行ZREVRANGEBYSCORE的顺序一致，每条笔记恰好出现一次
+	 */
+	@Test
+	void testMergeFeedsScrollThrough() {
+		Comparator<ZSetOperations.TypedTuple<String>> comparator = Comparator
+				.comparing(ZSetOperations.TypedTuple<String>::getScore)
+				.thenComparing(ZSetOperations.TypedTuple::getValue)
+				.reversed();
+		for (long seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			// 1. 随机来源，分数范围很小，保证大量相同的时间戳跨页
+			int sourceCount = 1 + random.nextInt(5);
+			List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+			List<ZSetOperations.TypedTuple<String>> expected = new ArrayList<>();
+			int blogId = 0;
+			for (int i = 0; i < sourceCount; i++) {
+				List<ZSetOperations.TypedTuple<String>> source = new ArrayList<>();
+				int size = random.nextInt(20);
+				for (int j = 0; j < size; j++) {
+					source.add(new DefaultTypedTuple<>(String.valueOf(blogId++), (double) (1 + random.nextInt(8))));
+				}
+				source.sort(comparator);
+				sources.add(source);
+				expected.addAll(source);
+			}
+			expected.sort(comparator);
+			// 2. 按游标逐页查询
+			List<ZSetOperations.TypedTuple<String>> actual = new ArrayList<>();
+			long maxTime = Long.MAX_VALUE;
+			int offset = 0;
+			while (true) {
+				long max = maxTime;
+				int limit = offset + SystemConstants.FEED_PAGE_SIZE;
+				List<List<ZSetOperations.TypedTuple<String>>> feedList = new ArrayList<>();
+				for (List<ZSetOperations.TypedTuple<String>> source : sources) {
+					List<ZSetOperations.TypedTuple<String>> feed = source.stream()
+							.filter(tuple -> tuple.getScore() <= max).limit(limit).collect(Collectors.toList());
+					if (!feed.isEmpty()) {
+						feedList.add(feed);
+					}
+				}
+				List<ZSetOperations.TypedTuple<String>> page = BlogServiceImpl.mergeFeeds(feedList, offset, SystemConstants.FEED_PAGE_SIZE);
+				if (page.isEmpty()) {
+					break;
+				}
+				actual.addAll(page);
+				// 与 queryFollowBlogs 相同的游标计算
+				long minTime = 0;
+				int os = 1;
+				for (ZSetOperations.TypedTuple<String> tuple : page) {
+					long score = tuple.getScore().longValue();
+					if (score == minTime) {
+						os++;
+					} else {
+						minTime = score;
+						os = 1;
+					}
+				}
+				if (minTime == maxTime) {
+					os += offset;
+				}
+				maxTime = minTime;
+				offset = os;
+			}
+			assertEquals(expected.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList()),
+					actual.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList()),
+					"随机种子：" + seed);
+		}
+	}
+
+	/**
+	 * 点赞数写回：数据库已经更新但删除待写回字段失败，下次写回重放同一批次，
+	 * 每篇笔记的点赞数只累加一次，重放结束后待写回增量被清空
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	void testFlushLikesReplay() {
+		// 1. 数据库：与 BlogMapper.updateLikedBatch 相同的语义，liked_flush 等于当前批次的行跳过
+		Map<Long, Long> liked = new HashMap<>();
+		Map<Long, Long> likedFlush = new HashMap<>();
+		for (long blogId = 1; blogId <= 5; blogId++) {
+			liked.put(blogId, 100L);
+			likedFlush.put(blogId, 0L);
+		}
+		BlogMapper blogMapper = mock(BlogMapper.class);
+		when(blogMapper.updateLikedBatch(anyMap(), anyLong())).thenAnswer(invocation -> {
+			Map<Long, Long> deltaMap = invocation.getArgument(0);
+			long flushId = invocation.getArgument(1);
+			int rows = 0;
+			for (Map.Entry<Long, Long> entry : deltaMap.entrySet()) {
+				if (likedFlush.get(entry.getKey()) != flushId) {
+					liked.put(entry.getKey(), Math.max(liked.get(entry.getKey()) + entry.getValue(), 0));
+					likedFlush.put(entry.getKey(), flushId);
+					rows++;
+				}
+			}
+			return rows;
+		});
+		// 2. Redis：点赞增量、待写回增量和写回批次
+		Map<String, String> values = new HashMap<>();
+		Map<String, Map<Object, Object>> hashes = new HashMap<>();
+		Map<Object, Object> delta = new LinkedHashMap<>();
+		for (long blogId = 1; blogId <= 5; blogId++) {
+			delta.put(String.valueOf(blogId), String.valueOf(blogId == 3 ? 0 : blogId * 10 - 25));
+		}
+		hashes.put(RedisConstants.BLOG_LIKED_DELTA_KEY, delta);
+		StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+		ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+		HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+		when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+		when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+		when(stringRedisTemplate.hasKey(anyString())).thenAnswer(invocation -> hashes.containsKey(invocation.<String>getArgument(0)));
+		when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+		when(valueOperations.setIfAbsent(anyString(), anyString()))
+				.thenAnswer(invocation -> values.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+		when(valueOperations.get(anyString())).thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+		// MULTI：RENAME 增量为待写回增量，同时写入批次
+		when(stringRedisTemplate.execute(any(SessionCallback.class))).thenAnswer(invocation -> {
+			hashes.put(RedisConstants.BLOG_LIKED_FLUSHING_KEY, hashes.remove(RedisConstants.BLOG_LIKED_DELTA_KEY));
+			values.put(RedisConstants.BLOG_LIKED_FLUSH_ID_KEY, "1700000000000");
+			return null;
+		});
+		when(hashOperations.entries(anyString()))
+				.thenAnswer(invocation -> new LinkedHashMap<>(hashes.getOrDefault(invocation.<String>getArgument(0), new HashMap<>())));
+		// 第一次删除待写回字段失败，模拟数据库已经提交但字段没有删除
+		boolean[] failed = {false};
+		when(hashOperations.delete(anyString(), any())).thenAnswer(invocation -> {
+			if (!failed[0]) {
+				failed[0] = true;
+				throw new IllegalStateException("连接断开");
+			}
+			Map<Object, Object> hash = hashes.get(invocation.<String>getArgument(0));
+			Object[] fields = Arrays.copyOfRange(invocation.getArguments(), 1, invocation.getArguments().length);
+			for (Object field : fields) {
+				hash.remove(field);
+			}
+			if (hash.isEmpty()) {
+				hashes.remove(invocation.<String>getArgument(0));
+			}
+			return (long) fields.length;
+		});
+		CacheClient cacheClient = mock(CacheClient.class);
+		doAnswer(invocation -> null).when(cacheClient).delete(anyList());
+		BlogServiceImpl blogService = new BlogServiceImpl();
+		ReflectionTestUtils.setField(blogService, "baseMapper", blogMapper);
+		ReflectionTestUtils.setField(blogService, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(blogService, "cacheClient", cacheClient);
+		ReflectionTestUtils.setField(blogService, "likeFlushBatchSize", 2);
+		// 3. 第一次写回失败，第二次重放同一批次
+		blogService.flushLikes();
+		assertTrue(failed[0]);
+		assertTrue(hashes.containsKey(RedisConstants.BLOG_LIKED_FLUSHING_KEY));
+		blogService.flushLikes();
+		for (long blogId = 1; blogId <= 5; blogId++) {
+			long expected = blogId == 3 ? 100 : Math.max(100 + blogId * 10 - 25, 0);
+			assertEquals(expected, liked.get(blogId), "笔记：" + blogId);
+		}
+		assertTrue(hashes.isEmpty());
+		// 4. 没有新的增量时再次写回不会修改点赞数
+		blogService.flushLikes();
+		assertEquals(85L, liked.get(1L));
+	}
+}
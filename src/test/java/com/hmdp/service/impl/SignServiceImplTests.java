@@ -0,0 +1,169 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Sign;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class SignServiceImplTests {
+
+	private static final IntSupplier NO_ARCHIVE = () -> fail("不应该查询已归档的月份");
+
+	/**
+	 * 随机签到的位图：归档后转换回来的位与 BITFIELD GET 的结果相同，连续签到天数与逐天计算的结果相同，覆盖28到31天的月份
+	 */
+	@Test
+	void testArchivedBits() {
+		for (long seed = 0; seed < 1000; seed++) {
+			Random random = new Random(seed);
+			int monthDays = 28 + random.nextInt(4);
+			List<Integer> days = new ArrayList<>();
+			for (int d = 1; d <= monthDays; d++) {
+				if (random.nextInt(4) != 0) {
+					days.add(d);
+				}
+			}
+			byte[] bitmap = bitmap(days);
+			long bits = SignServiceImpl.archivedBits(SignServiceImpl.toBits(bitmap), monthDays);
+			assertEquals(bitfield(bitmap, monthDays), bits, "随机种子：" + seed);
+			int expected = 0;
+			while (expected < monthDays && days.contains(monthDays - expected)) {
+				expected++;
+			}
+			assertEquals(expected, SignServiceImpl.trailingDays(bits, monthDays), "随机种子：" + seed);
+		}
+	}
+
+	/**
+	 * 31天的月份：全部签到时第31天保存在归档的最高有效位，只签到最后一天或第一天的边界
+	 */
+	@Test
+	void test31DayMonth() {
+		byte[] full = bitmap(range(1, 31));
+		assertEquals(0x7FFFFFFF, SignServiceImpl.toBits(full));
+		assertEquals(31, SignServiceImpl.trailingDays(SignServiceImpl.archivedBits(SignServiceImpl.toBits(full), 31), 31));
+		assertEquals(1, SignServiceImpl.trailingDays(SignServiceImpl.archivedBits(SignServiceImpl.toBits(bitmap(range(31, 31))), 31), 31));
+		assertEquals(0, SignServiceImpl.trailingDays(SignServiceImpl.archivedBits(SignServiceImpl.toBits(bitmap(range(1, 30))), 31), 31));
+		// 10月31日全月签到，9月最后一天没有签到
+		assertEquals(31, SignServiceImpl.streak(bitfield(full, 31), 31, bitfield(bitmap(range(1, 29)), 30), 30, NO_ARCHIVE));
+		// 11月1日签到，10月全月签到，9月（已归档）最后两天签到
+		LocalDate september = LocalDate.of(2026, 9, 1);
+		List<Sign> archived = new ArrayList<>();
+		archived.add(archive(september, bitmap(range(29, 30))));
+		assertEquals(1 + 31 + 2, SignServiceImpl.streak(bitfield(bitmap(range(1, 1)), 1), 1, bitfield(full, 31), 31,
+				() -> SignServiceImpl.archivedStreak(september, pageLoader(archived, new AtomicInteger()))));
+	}
+
+	/**
+	 * 连续签到跨越上个月和多个已归档的月份：超过一页的归档需要翻页，缺少的月份和最后一天没有签到的月份结束计算
+	 */
+	@Test
+	void testStreakAcrossMonthAndArchive() {
+		// 3月5日，本月1到5号、2月全部签到
+		LocalDate today = LocalDate.of(2026, 3, 5);
+		LocalDate lastMonth = today.minusMonths(1);
+		long bits = bitfield(bitmap(range(1, 5)), 5);
+		long lastBits = bitfield(bitmap(range(1, lastMonth.lengthOfMonth())), lastMonth.lengthOfMonth());
+		// 1. 已归档的月份：从1月往前连续20个月全部签到，再往前一个月最后3天签到
+		LocalDate start = lastMonth.minusMonths(1).withDayOfMonth(1);
+		List<Sign> archived = new ArrayList<>();
+		int expected = 5 + lastMonth.lengthOfMonth();
+		LocalDate month = start;
+		for (int i = 0; i < 20; i++) {
+			archived.add(archive(month, bitmap(range(1, month.lengthOfMonth()))));
+			expected += month.lengthOfMonth();
+			month = month.minusMonths(1);
+		}
+		archived.add(archive(month, bitmap(range(month.lengthOfMonth() - 2, month.lengthOfMonth()))));
+		expected += 3;
+		archived.add(archive(month.minusMonths(1), bitmap(range(1, month.minusMonths(1).lengthOfMonth()))));
+		AtomicInteger pages = new AtomicInteger();
+		assertEquals(expected, SignServiceImpl.streak(bits, today.getDayOfMonth(), lastBits, lastMonth.lengthOfMonth(),
+				() -> SignServiceImpl.archivedStreak(start, pageLoader(archived, pages))));
+		assertTrue(pages.get() > 1, "归档超过一页时需要翻页");
+		// 2. 1月全部签到，缺少12月的归档，11月全部签到：只计算到1月
+		List<Sign> gap = new ArrayList<>();
+		gap.add(archive(start, bitmap(range(1, start.lengthOfMonth()))));
+		gap.add(archive(start.minusMonths(2), bitmap(range(1, start.minusMonths(2).lengthOfMonth()))));
+		assertEquals(5 + lastMonth.lengthOfMonth() + start.lengthOfMonth(), SignServiceImpl.streak(bits, today.getDayOfMonth(),
+				lastBits, lastMonth.lengthOfMonth(), () -> SignServiceImpl.archivedStreak(start, pageLoader(gap, new AtomicInteger()))));
+		// 3. 2月最后一天没有签到，不查询归档
+		assertEquals(5, SignServiceImpl.streak(bits, today.getDayOfMonth(),
+				bitfield(bitmap(range(1, 27)), 28), 28, NO_ARCHIVE));
+	}
+
+	/**
+	 * 今天还没有签到：从昨天开始计算，不会因为今天没有签到而中断
+	 */
+	@Test
+	void testNotSignedToday() {
+		// 5号，1到4号签到，上个月最后一天没有签到
+		assertEquals(4, SignServiceImpl.streak(bitfield(bitmap(range(1, 4)), 5), 5, bitfield(bitmap(range(1, 29)), 30), 30, NO_ARCHIVE));
+		// 5号，2到4号签到
+		assertEquals(3, SignServiceImpl.streak(bitfield(bitmap(range(2, 4)), 5), 5, bitfield(bitmap(range(1, 30)), 30), 30, NO_ARCHIVE));
+		// 5号，昨天没有签到
+		assertEquals(0, SignServiceImpl.streak(bitfield(bitmap(range(1, 3)), 5), 5, bitfield(bitmap(range(1, 30)), 30), 30, NO_ARCHIVE));
+		// 1号还没有签到，上个月（31天）全部签到，再往前的归档月份最后10天签到
+		assertEquals(31 + 10, SignServiceImpl.streak(0, 1, bitfield(bitmap(range(1, 31)), 31), 31, () -> 10));
+		// 1号还没有签到，上个月最后两天签到
+		assertEquals(2, SignServiceImpl.streak(0, 1, bitfield(bitmap(range(29, 30)), 30), 30, NO_ARCHIVE));
+	}
+
+	/**
+	 * 与 SETBIT key (d-1) 1 相同的Redis位图，每个用户每月4个字节
+	 */
+	private static byte[] bitmap(List<Integer> days) {
+		byte[] bitmap = new byte[4];
+		for (int day : days) {
+			bitmap[(day - 1) / 8] |= 0x80 >>> ((day - 1) % 8);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 与 BITFIELD key GET u{width} 0 相同：第1天在最高位，第width天在最低位
+	 */
+	private static long bitfield(byte[] bitmap, int width) {
+		long value = 0;
+		for (int i = 0; i < width; i++) {
+			value = value << 1 | (bitmap[i / 8] >> (7 - i % 8) & 1);
+		}
+		return value;
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> days = new ArrayList<>();
+		for (int d = from; d <= to; d++) {
+			days.add(d);
+		}
+		return days;
+	}
+
+	private static Sign archive(LocalDate month, byte[] bitmap) {
+		return new Sign().setDate(month).setBits(SignServiceImpl.toBits(bitmap));
+	}
+
+	/**
+	 * 与 archivedStreak 的查询相同：不晚于指定月份，按月份倒序，每页最多ARCHIVED_PAGE_SIZE条
+	 */
+	private static Function<LocalDate, List<Sign>> pageLoader(List<Sign> archived, AtomicInteger pages) {
+		return expected -> {
+			pages.incrementAndGet();
+			return archived.stream().filter(sign -> !sign.getDate().isAfter(expected))
+					.sorted(Comparator.comparing(Sign::getDate).reversed())
+					.limit(SignServiceImpl.ARCHIVED_PAGE_SIZE).collect(Collectors.toList());
+		};
+	}
+}
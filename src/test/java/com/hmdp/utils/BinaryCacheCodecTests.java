@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BinaryCacheCodecTests {
+
+	/**
+	 * 被截断的二进制数据按无法解码处理，返回null，由调用方从数据库重建
+	 */
+	@Test
+	void testDecodeTruncated() {
+		BinaryCacheCodec codec = new BinaryCacheCodec();
+		Shop shop = new Shop();
+		shop.setId(1L);
+		shop.setName("103茶餐厅");
+		shop.setArea("大关");
+		shop.setScore(37);
+		shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+		byte[] bytes = codec.encode(shop, 0L);
+		assertEquals(shop, codec.decode(bytes, Shop.class, true));
+		for (int length = BinaryCacheCodec.HEADER_LENGTH; length < bytes.length; length++) {
+			assertNull(codec.decode(Arrays.copyOf(bytes, length), Shop.class, true), "截断长度：" + length);
+		}
+	}
+}
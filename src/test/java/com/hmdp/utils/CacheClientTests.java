@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheClientTests {
+
+	/**
+	 * 提前刷新模拟：一批同时预热的热点key，XFetch提前刷新的每毫秒抢锁峰值低于只在过期后重建
+	 */
+	@Test
+	void testEarlyRefreshSimulation() {
+		long baseline = simulateMaxAttemptsPerMillis(0);
+		for (double beta : new double[]{0.5, 1.0, 2.0}) {
+			long maxAttemptsPerMillis = simulateMaxAttemptsPerMillis(beta);
+			assertTrue(maxAttemptsPerMillis < baseline,
+					"beta：" + beta + "，每毫秒抢锁峰值：" + maxAttemptsPerMillis + "，不提前刷新：" + baseline);
+		}
+	}
+
+	/**
+	 * 模拟多个节点，同一个key重建期间每个判断需要重建的请求都会去抢锁
+	 *
+	 * @param beta 提前刷新系数，为0时只在过期后重建
+	 * @return 每毫秒抢锁峰值
+	 */
+	private long simulateMaxAttemptsPerMillis(double beta) {
+		int keys = 100;
+		long ttl = 30000;
+		double rebuildCost = 100;
+		int requestsPerMillis = 20;
+		long duration = 120000;
+		long[] expireAt = new long[keys];
+		long[] rebuildDoneAt = new long[keys];
+		Arrays.fill(expireAt, ttl);
+		Arrays.fill(rebuildDoneAt, -1);
+		Random random = new Random(1);
+		long maxAttemptsPerMillis = 0;
+		for (long now = 0; now < duration; now++) {
+			long attempts = 0;
+			for (int i = 0; i < requestsPerMillis; i++) {
+				int k = random.nextInt(keys);
+				// 重建完成，更新逻辑过期时间
+				if (rebuildDoneAt[k] >= 0 && now >= rebuildDoneAt[k]) {
+					expireAt[k] = rebuildDoneAt[k] + ttl;
+					rebuildDoneAt[k] = -1;
+				}
+				boolean refresh = now >= expireAt[k] || (beta > 0 && CacheClient.xfetch(now, expireAt[k], rebuildCost, beta));
+				if (refresh) {
+					attempts++;
+					if (rebuildDoneAt[k] < 0) {
+						rebuildDoneAt[k] = now + (long) rebuildCost;
+					}
+				}
+			}
+			maxAttemptsPerMillis = Math.max(maxAttemptsPerMillis, attempts);
+		}
+		return maxAttemptsPerMillis;
+	}
+}
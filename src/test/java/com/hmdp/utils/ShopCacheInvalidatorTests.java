@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.RowChangeDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopCacheInvalidatorTests {
+
+	/**
+	 * 通过本地binlog读取器发布绕过服务的数据库修改：店铺缓存被刷新为最新数据，
+	 * 处理失败和处理完成前都不确认，刷新缓存之后已确认的位置才推进
+	 */
+	@Test
+	void testShopCacheInvalidation() throws InterruptedException {
+		// 1. 数据库中已经是修改后的店铺名称，缓存中还是旧名称
+		Long id = 1L;
+		Shop shop = new Shop();
+		shop.setId(id);
+		shop.setTypeId(1L);
+		shop.setName("103茶餐厅-cdc");
+		shop.setX(120.149192);
+		shop.setY(30.316078);
+		Map<String, String> cachedNames = new ConcurrentHashMap<>();
+		cachedNames.put(RedisConstants.CACHE_SHOP_KEY + id, "103茶餐厅");
+		// 第一次查询失败，第二次查询等待放行，用于观察处理完成前的位置
+		AtomicInteger queryCount = new AtomicInteger();
+		CountDownLatch handling = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		IShopService shopService = mock(IShopService.class);
+		when(shopService.listByIds(any())).thenAnswer(invocation -> {
+			if (queryCount.incrementAndGet() == 1) {
+				throw new IllegalStateException("数据库连接断开");
+			}
+			handling.countDown();
+			release.await();
+			return Collections.singletonList(shop);
+		});
+		StubBinlogReader binlogReader = new StubBinlogReader();
+		// 2. 写回缓存时记录当时已确认的位置
+		AtomicLong ackedWhenCached = new AtomicLong(-1);
+		CacheClient cacheClient = mock(CacheClient.class);
+		doAnswer(invocation -> {
+			Map<Long, Shop> shopMap = invocation.getArgument(1);
+			shopMap.forEach((shopId, value) -> cachedNames.put(RedisConstants.CACHE_SHOP_KEY + shopId, value.getName()));
+			ackedWhenCached.set(binlogReader.getAckedPosition());
+			return null;
+		}).when(cacheClient).setBatchWithLogicExpire(eq(RedisConstants.CACHE_SHOP_KEY), any(Map.class), anyLong(), anyLong(),
+				any(TimeUnit.class), anyBoolean());
+		doAnswer(invocation -> {
+			invocation.<Collection<String>>getArgument(0).forEach(cachedNames::remove);
+			return null;
+		}).when(cacheClient).delete(any(Collection.class));
+		ShopCacheInvalidator invalidator = new ShopCacheInvalidator();
+		ReflectionTestUtils.setField(invalidator, "binlogReader", binlogReader);
+		ReflectionTestUtils.setField(invalidator, "shopService", shopService);
+		ReflectionTestUtils.setField(invalidator, "cacheClient", cacheClient);
+		ReflectionTestUtils.setField(invalidator, "cacheBloomFilter", mock(CacheBloomFilter.class));
+		ReflectionTestUtils.setField(invalidator, "stringRedisTemplate", mock(StringRedisTemplate.class));
+		ReflectionTestUtils.setField(invalidator, "batchSize", 500);
+		ReflectionTestUtils.setField(invalidator, "flushInterval", 10L);
+		ReflectionTestUtils.invokeMethod(invalidator, "init");
+		try {
+			// 3. 发布行变更，处理完成前不确认
+			Map<String, Serializable> row = new HashMap<>();
+			row.put("id", id);
+			row.put("type_id", shop.getTypeId());
+			long position = binlogReader.publish(Collections.singletonList(
+					new RowChangeDTO("tb_shop", RowChangeDTO.UPDATE, row, row)));
+			assertTrue(handling.await(5, TimeUnit.SECONDS));
+			assertEquals(2, queryCount.get());
+			assertEquals(0, binlogReader.getAckedPosition());
+			assertEquals("103茶餐厅", cachedNames.get(RedisConstants.CACHE_SHOP_KEY + id));
+			// 4. 放行后缓存被刷新，之后才确认
+			release.countDown();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (binlogReader.getAckedPosition() < position && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(position, binlogReader.getAckedPosition());
+			assertEquals("103茶餐厅-cdc", cachedNames.get(RedisConstants.CACHE_SHOP_KEY + id));
+			assertEquals(0, ackedWhenCached.get());
+		} finally {
+			release.countDown();
+			ReflectionTestUtils.invokeMethod(invalidator, "destroy");
+		}
+	}
+}